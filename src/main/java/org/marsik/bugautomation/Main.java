@@ -21,6 +21,7 @@ import org.jboss.weld.environment.se.Weld;
 import org.jboss.weld.environment.se.WeldContainer;
 import org.kie.api.runtime.KieSession;
 import org.marsik.bugautomation.jobs.BugzillaRefreshJob;
+import org.marsik.bugautomation.jobs.GerritRefreshJob;
 import org.marsik.bugautomation.jobs.GithubRefreshJob;
 import org.marsik.bugautomation.jobs.RefreshRulesJob;
 import org.marsik.bugautomation.jobs.TrelloRefreshJob;
@@ -57,18 +58,23 @@ public class Main {
     @Inject
     GithubRefreshJob githubRefreshJob;
 
+    @Inject
+    GerritRefreshJob gerritRefreshJob;
+
     @PostConstruct
     public void create() {
-        scheduler = Executors.newScheduledThreadPool(3);
+        scheduler = Executors.newScheduledThreadPool(5);
 
         scheduler.scheduleWithFixedDelay(new SafeRunnable(refreshRulesJob),
                 0, 30, TimeUnit.SECONDS);
         scheduler.scheduleWithFixedDelay(new SafeRunnable(trelloRefreshJob),
                 0, 120, TimeUnit.SECONDS);
-        // scheduler.scheduleWithFixedDelay(new SafeRunnable(githubRefreshJob),
-        //        0, 15*60, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(new SafeRunnable(githubRefreshJob),
+                0, 15*60, TimeUnit.SECONDS);
         scheduler.scheduleWithFixedDelay(new SafeRunnable(bugzillaRefreshJob),
                 0, 300, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(new SafeRunnable(gerritRefreshJob),
+                0, 300, TimeUnit.SECONDS);
     }
 
     @PreDestroy
@@ -1,7 +1,6 @@
 package org.marsik.bugautomation.bugzilla;
 
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -13,116 +12,93 @@ import java.util.stream.Collectors;
 import org.marsik.bugautomation.facts.BugzillaBugFlag;
 
 public class BugProxy {
-    private final Map<String, Object> map;
-    private final Set<BugzillaBugFlag> flags = new HashSet<>();
+    private final BugRecord record;
+
+    public BugProxy(BugRecord record) {
+        this.record = record;
+    }
 
     public BugProxy(Map<String, Object> map) {
-        this.map = map;
+        this(BugRecord.of(map));
     }
 
     public String getCommunity() {
-        return (String) map.getOrDefault("classification", "");
+        return Optional.ofNullable(record.getClassification()).orElse("");
     }
 
     public String getId() {
-        return (String)map.get("id").toString();
+        return String.valueOf(record.getId());
     }
 
-    public Date getDate(String key) {
-        return (Date)this.getAs(key, Date.class);
+    public int getNumericId() {
+        return record.getId();
     }
 
     public Date getLastChangeTime() {
-        return this.getDate("last_change_time");
+        return record.getLastChangeDate();
+    }
+
+    /**
+     * @return the last change time in epoch millis or {@link BugRecord#NO_TIME}
+     */
+    public long getLastChangeTimeMillis() {
+        return record.getLastChangeTime();
     }
 
     public String getSummary() {
-        return (String)map.get("summary");
+        return record.getSummary();
     }
 
     public String getDescription() {
-        return (String)map.get("description");
+        return record.getDescription();
     }
 
     public String getStatus() {
-        return (String)map.get("status");
+        return record.getStatus();
     }
 
     public String getSeverity() {
-        return (String)map.get("severity");
+        return record.getSeverity();
     }
 
     public String getPriority() {
-        return (String)map.get("priority");
+        return record.getPriority();
     }
 
     public List<String> getVerified() {
-        return getList("cf_verified");
-    }
-
-    public String get(String key) {
-        return (String)map.get(key);
-    }
-
-    @SuppressWarnings("unchecked")
-    private <T> T getAs(String key, Class<T> cls) {
-        return (T)map.get(key);
-    }
-
-    @SuppressWarnings("unchecked")
-    private <T> List<T> getList(String key) {
-        T[] val = (T[])map.get(key);
-        return Optional.ofNullable(val).map(Arrays::asList).orElse(Collections.emptyList());
+        return Arrays.asList(record.getVerified());
     }
 
     public String getAssignedTo() {
-        return (String)map.get("assigned_to");
+        return record.getAssignedTo();
     }
 
     public String getTargetRelease() {
-        return (String) firstValue(map.get("target_release"));
+        return record.getTargetRelease();
     }
 
-
     public String getTargetMilestone() {
-        return (String) firstValue(map.get("target_milestone"));
-    }
-
-    private Object firstValue(Object value) {
-        if (value instanceof Object[]) {
-            value = ((Object[]) value)[0];
-        }
-
-        if (value.toString().trim().equals("---")) return "";
-        else return value;
-    }
-
-    @SuppressWarnings("unchecked")
-    public void loadFlags(BugProxy data) {
-        for (Object flag0: data.getList("flags")) {
-            Map<String,Object> flag = (Map<String,Object>)flag0;
-            flags.add(new BugzillaBugFlag(flag));
-        }
+        return record.getTargetMilestone();
     }
 
     public Set<BugzillaBugFlag> getFlags() {
-        return Collections.unmodifiableSet(flags);
+        return new HashSet<>(record.getFlags());
     }
 
     public List<String> getKeywords() {
-        return getList("keywords");
+        return Arrays.asList(record.getKeywords());
     }
 
     public List<String> getBlocks() {
-        return getList("blocks").stream()
-                .map(String::valueOf).collect(Collectors.toList());
+        return Arrays.stream(record.getBlocks())
+                .mapToObj(String::valueOf).collect(Collectors.toList());
     }
 
     public String getPmScore() {
-        return (String)map.get("cf_pm_score");
+        return record.getPmScore();
     }
 
     public String getWhiteBoard() {
-        return (String)map.get("whiteboard");
+        return record.getWhiteboard();
     }
 }
@@ -0,0 +1,169 @@
+package org.marsik.bugautomation.bugzilla;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Builder;
+import lombok.Value;
+import org.marsik.bugautomation.facts.BugzillaBugFlag;
+
+/**
+ * Compact typed copy of a bug returned by Bug.get or Bug.search.
+ *
+ * Only the fields BugProxy exposes are kept, everything else bugzilla
+ * sends is dropped as soon as the bug struct is parsed.
+ */
+@Value
+@Builder
+public class BugRecord {
+    public static final String ID = "id";
+    public static final String LAST_CHANGE_TIME = "last_change_time";
+    public static final String CLASSIFICATION = "classification";
+    public static final String SUMMARY = "summary";
+    public static final String DESCRIPTION = "description";
+    public static final String STATUS = "status";
+    public static final String SEVERITY = "severity";
+    public static final String PRIORITY = "priority";
+    public static final String VERIFIED = "cf_verified";
+    public static final String ASSIGNED_TO = "assigned_to";
+    public static final String TARGET_RELEASE = "target_release";
+    public static final String TARGET_MILESTONE = "target_milestone";
+    public static final String FLAGS = "flags";
+    public static final String KEYWORDS = "keywords";
+    public static final String BLOCKS = "blocks";
+    public static final String PM_SCORE = "cf_pm_score";
+    public static final String WHITEBOARD = "whiteboard";
+
+    /**
+     * Every field the record is built from, used as the include_fields
+     * projection so bugzilla does not send anything that gets dropped.
+     */
+    public static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList(
+            ID, LAST_CHANGE_TIME, CLASSIFICATION, SUMMARY, DESCRIPTION, STATUS, SEVERITY,
+            PRIORITY, VERIFIED, ASSIGNED_TO, TARGET_RELEASE, TARGET_MILESTONE, FLAGS,
+            KEYWORDS, BLOCKS, PM_SCORE, WHITEBOARD));
+
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private static final String[] EMPTY = new String[0];
+
+    int id;
+    long lastChangeTime;
+
+    String classification;
+    String summary;
+    String description;
+    String status;
+    String severity;
+    String priority;
+    String assignedTo;
+    String targetRelease;
+    String targetMilestone;
+    String pmScore;
+    String whiteboard;
+
+    String[] verified;
+    String[] keywords;
+    int[] blocks;
+
+    List<BugzillaBugFlag> flags;
+
+    /**
+     * Decide whether a parsed struct is a bug. Flags and external bugs
+     * carry an id too, but never any of the bug specific fields.
+     */
+    public static boolean isBug(Map<?, ?> struct) {
+        return struct.containsKey(ID)
+                && (struct.containsKey(LAST_CHANGE_TIME)
+                    || struct.containsKey(SUMMARY)
+                    || struct.containsKey(FLAGS));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static BugRecord of(Map<?, ?> struct) {
+        final Object changed = struct.get(LAST_CHANGE_TIME);
+
+        return BugRecord.builder()
+                .id(((Number) struct.get(ID)).intValue())
+                .lastChangeTime(changed instanceof Date ? ((Date) changed).getTime() : NO_TIME)
+                .classification(asString(struct.get(CLASSIFICATION)))
+                .summary(asString(struct.get(SUMMARY)))
+                .description(asString(struct.get(DESCRIPTION)))
+                .status(asString(struct.get(STATUS)))
+                .severity(asString(struct.get(SEVERITY)))
+                .priority(asString(struct.get(PRIORITY)))
+                .assignedTo(asString(struct.get(ASSIGNED_TO)))
+                .targetRelease(firstValue(struct.get(TARGET_RELEASE)))
+                .targetMilestone(firstValue(struct.get(TARGET_MILESTONE)))
+                .pmScore(asString(struct.get(PM_SCORE)))
+                .whiteboard(asString(struct.get(WHITEBOARD)))
+                .verified(asStrings(struct.get(VERIFIED)))
+                .keywords(asStrings(struct.get(KEYWORDS)))
+                .blocks(asInts(struct.get(BLOCKS)))
+                .flags(asFlags(struct.get(FLAGS)))
+                .build();
+    }
+
+    public Date getLastChangeDate() {
+        return lastChangeTime == NO_TIME ? null : new Date(lastChangeTime);
+    }
+
+    private static String asString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static String firstValue(Object value) {
+        if (value instanceof Object[]) {
+            Object[] values = (Object[]) value;
+            value = values.length > 0 ? values[0] : null;
+        }
+
+        if (value == null) return null;
+        else if (value.toString().trim().equals("---")) return "";
+        else return value.toString();
+    }
+
+    private static String[] asStrings(Object value) {
+        if (!(value instanceof Object[])) {
+            return EMPTY;
+        }
+
+        Object[] values = (Object[]) value;
+        String[] strings = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            strings[i] = String.valueOf(values[i]);
+        }
+        return strings;
+    }
+
+    private static int[] asInts(Object value) {
+        if (!(value instanceof Object[])) {
+            return new int[0];
+        }
+
+        Object[] values = (Object[]) value;
+        int[] ints = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ints[i] = ((Number) values[i]).intValue();
+        }
+        return ints;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<BugzillaBugFlag> asFlags(Object value) {
+        if (!(value instanceof Object[])) {
+            return Collections.emptyList();
+        }
+
+        Object[] values = (Object[]) value;
+        List<BugzillaBugFlag> flags = new ArrayList<>(values.length);
+        for (Object flag : values) {
+            flags.add(new BugzillaBugFlag((Map<String, Object>) flag));
+        }
+        return flags;
+    }
+}
@@ -0,0 +1,51 @@
+package org.marsik.bugautomation.bugzilla;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.ws.commons.util.NamespaceContextImpl;
+import org.apache.xmlrpc.common.TypeFactory;
+import org.apache.xmlrpc.common.XmlRpcStreamConfig;
+import org.apache.xmlrpc.parser.MapParser;
+
+/**
+ * Struct parser that turns every bug struct into a {@link BugRecord}
+ * the moment its closing tag is parsed. The temporary map is garbage
+ * right away, and the bug is handed to the consumer registered for the
+ * current thread, so it can be processed before the rest of the response
+ * arrives.
+ */
+public class BugRecordParser extends MapParser {
+    private static final ThreadLocal<Consumer<BugRecord>> consumer = new ThreadLocal<>();
+
+    public BugRecordParser(XmlRpcStreamConfig pConfig, NamespaceContextImpl pContext, TypeFactory pFactory) {
+        super(pConfig, pContext, pFactory);
+    }
+
+    @Override
+    public void setResult(Object pResult) {
+        if (pResult instanceof Map && BugRecord.isBug((Map<?, ?>) pResult)) {
+            BugRecord record = BugRecord.of((Map<?, ?>) pResult);
+            Consumer<BugRecord> sink = consumer.get();
+            if (sink != null) {
+                sink.accept(record);
+            }
+            super.setResult(record);
+        } else {
+            super.setResult(pResult);
+        }
+    }
+
+    /**
+     * Register a consumer for the bugs parsed by the current thread.
+     *
+     * @param sink consumer to call for each parsed bug, null to unregister
+     */
+    public static void setConsumer(Consumer<BugRecord> sink) {
+        if (sink == null) {
+            consumer.remove();
+        } else {
+            consumer.set(sink);
+        }
+    }
+}
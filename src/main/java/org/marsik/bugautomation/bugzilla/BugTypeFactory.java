@@ -0,0 +1,26 @@
+package org.marsik.bugautomation.bugzilla;
+
+import org.apache.ws.commons.util.NamespaceContextImpl;
+import org.apache.xmlrpc.common.TypeFactoryImpl;
+import org.apache.xmlrpc.common.XmlRpcController;
+import org.apache.xmlrpc.common.XmlRpcStreamConfig;
+import org.apache.xmlrpc.parser.TypeParser;
+
+/**
+ * Type factory that decodes structs using {@link BugRecordParser}.
+ */
+public class BugTypeFactory extends TypeFactoryImpl {
+    private static final String STRUCT_TAG = "struct";
+
+    public BugTypeFactory(XmlRpcController pController) {
+        super(pController);
+    }
+
+    @Override
+    public TypeParser getParser(XmlRpcStreamConfig pConfig, NamespaceContextImpl pContext, String pURI, String pLocalName) {
+        if ("".equals(pURI) && STRUCT_TAG.equals(pLocalName)) {
+            return new BugRecordParser(pConfig, pContext, this);
+        }
+        return super.getParser(pConfig, pContext, pURI, pLocalName);
+    }
+}
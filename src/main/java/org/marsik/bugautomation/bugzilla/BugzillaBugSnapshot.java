@@ -0,0 +1,166 @@
+package org.marsik.bugautomation.bugzilla;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.marsik.bugautomation.facts.Bug;
+import org.marsik.bugautomation.facts.BugzillaBug;
+import org.marsik.bugautomation.facts.BugzillaBugFlag;
+import org.marsik.bugautomation.facts.BugzillaPriorityLevel;
+import org.marsik.bugautomation.facts.BugzillaStatus;
+import org.marsik.bugautomation.facts.User;
+
+/**
+ * Flat copy of a converted BugzillaBug together with the bugzilla
+ * change time it was retrieved at. It only uses plain values, so it can
+ * be written to the sync journal and turned back into a fact after
+ * a restart.
+ */
+@Data
+@NoArgsConstructor
+public class BugzillaBugSnapshot {
+    String id;
+    long lastChangeTime;
+
+    String title;
+    String description;
+    String community;
+    String status;
+    String priority;
+    String severity;
+    int pmScore;
+    int pmPriority;
+    String targetMilestone;
+    String targetRelease;
+    String assignedTo;
+
+    List<String> verified = new ArrayList<>();
+    List<String> keywords = new ArrayList<>();
+    List<String> blocks = new ArrayList<>();
+    List<Flag> flags = new ArrayList<>();
+
+    @Data
+    @NoArgsConstructor
+    public static class Flag {
+        String flag;
+        long modifiedAt;
+    }
+
+    public static BugzillaBugSnapshot of(BugzillaBug bug, long lastChangeTime, String assignedTo) {
+        BugzillaBugSnapshot snapshot = new BugzillaBugSnapshot();
+        snapshot.id = bug.getId();
+        snapshot.lastChangeTime = lastChangeTime;
+        snapshot.title = bug.getTitle();
+        snapshot.description = bug.getDescription();
+        snapshot.community = bug.getCommunity();
+        snapshot.status = bug.getStatus().name();
+        snapshot.priority = bug.getPriority().name();
+        snapshot.severity = bug.getSeverity().name();
+        snapshot.pmScore = bug.getPmScore();
+        snapshot.pmPriority = bug.getPmPriority();
+        snapshot.targetMilestone = bug.getTargetMilestone();
+        snapshot.targetRelease = bug.getTargetRelease();
+        snapshot.assignedTo = assignedTo;
+
+        if (bug.getVerified() != null) {
+            snapshot.verified.addAll(bug.getVerified());
+        }
+        snapshot.keywords.addAll(bug.getKeywords());
+        bug.getBlocks().stream().map(Bug::getId).forEach(snapshot.blocks::add);
+
+        if (bug.getFlags() != null) {
+            for (BugzillaBugFlag bugFlag : bug.getFlags()) {
+                Flag flag = new Flag();
+                flag.flag = bugFlag.getFlag();
+                flag.modifiedAt = bugFlag.getModifiedAt().toInstant(ZoneOffset.UTC).toEpochMilli();
+                snapshot.flags.add(flag);
+            }
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Check that a snapshot read back from the journal has everything
+     * {@link #toBug(Function, Function)} needs.
+     *
+     * @throws IllegalArgumentException when a required field is missing or invalid
+     */
+    public void validate() {
+        if (id == null) {
+            throw new IllegalArgumentException("Bug snapshot without an id");
+        }
+        Integer.parseInt(id);
+
+        requireField(status, "status");
+        requireField(priority, "priority");
+        requireField(severity, "severity");
+        requireField(verified, "verified");
+        requireField(keywords, "keywords");
+        requireField(blocks, "blocks");
+        requireField(flags, "flags");
+
+        BugzillaStatus.valueOf(status);
+        BugzillaPriorityLevel.valueOf(priority);
+        BugzillaPriorityLevel.valueOf(severity);
+
+        if (blocks.contains(null) || flags.stream().anyMatch(f -> f == null || f.flag == null)) {
+            throw new IllegalArgumentException("Bug snapshot " + id + " has invalid blocks or flags");
+        }
+    }
+
+    private void requireField(Object value, String name) {
+        if (value == null) {
+            throw new IllegalArgumentException("Bug snapshot " + id + " without " + name);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException when the snapshot is not valid
+     */
+    public BugzillaBug toBug(Function<String, Bug> bugs, Function<String, Optional<User>> users) {
+        validate();
+
+        Set<BugzillaBugFlag> bugFlags = new HashSet<>();
+        for (Flag flag : flags) {
+            bugFlags.add(new BugzillaBugFlag(flag.flag,
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(flag.modifiedAt), ZoneOffset.UTC)));
+        }
+
+        BugzillaBug bugzillaBug = BugzillaBug.builder()
+                .id(id)
+                .uid("bz-" + id)
+                .community(community)
+                .title(title)
+                .description(description)
+                .status(BugzillaStatus.valueOf(status))
+                .bug(bugs.apply(id))
+                .severity(BugzillaPriorityLevel.valueOf(severity))
+                .priority(BugzillaPriorityLevel.valueOf(priority))
+                .pmScore(pmScore)
+                .pmPriority(pmPriority)
+                .targetMilestone(targetMilestone)
+                .targetRelease(targetRelease)
+                .verified(new HashSet<>(verified))
+                .keywords(new HashSet<>(keywords))
+                .blocks(blocks.stream().map(bugs).collect(Collectors.toSet()))
+                .flags(bugFlags)
+                .build();
+
+        if (assignedTo != null) {
+            users.apply(assignedTo).ifPresent(bugzillaBug::setAssignedTo);
+        }
+
+        return bugzillaBug;
+    }
+}
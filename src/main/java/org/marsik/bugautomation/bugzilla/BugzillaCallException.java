@@ -0,0 +1,33 @@
+package org.marsik.bugautomation.bugzilla;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * A bugzilla call did not produce a usable answer. The fault code is the
+ * one bugzilla reported, or 0 when the call failed in transport or the
+ * response could not be parsed.
+ */
+public class BugzillaCallException extends RuntimeException {
+    private final int faultCode;
+
+    public BugzillaCallException(String method, XmlRpcException cause) {
+        super("Bugzilla call " + method + " failed: " + cause.getMessage(), cause);
+        this.faultCode = cause.code;
+    }
+
+    public BugzillaCallException(String message) {
+        super(message);
+        this.faultCode = 0;
+    }
+
+    public int getFaultCode() {
+        return faultCode;
+    }
+
+    /**
+     * Bugzilla understood the call and refused it, repeating it will not help.
+     */
+    public boolean isFault() {
+        return faultCode != 0;
+    }
+}
@@ -7,29 +7,51 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.client.XmlRpcClient;
 import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcClientException;
+import org.marsik.bugautomation.hystrix.Connector;
+import org.marsik.bugautomation.hystrix.ConnectorCommand;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class BugzillaClient {
     private static final Logger logger = LoggerFactory.getLogger(BugzillaClient.class);
 
+    // Faults reported when the login token expired or was invalidated
+    private static final Set<Integer> LOGIN_REQUIRED_FAULTS = ImmutableSet.of(410, 32000);
+    private static final int DEFAULT_MAX_CONNECTIONS = 8;
+
     private final URL xmlRpcUrl;
     private XmlRpcClient client;
+    private PooledHttpTransportFactory transportFactory;
     private AuthorizationCallback authorizationCallback;
-    private String token;
+    private volatile String token;
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
 
     public BugzillaClient(String baseUrl) throws MalformedURLException {
         xmlRpcUrl = new URL(baseUrl + "/xmlrpc.cgi");
     }
 
+    public URL getUrl() {
+        return xmlRpcUrl;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
     private XmlRpcClient getClient() {
         XmlRpcClientConfigImpl config = new XmlRpcClientConfigImpl();
         config.setServerURL(xmlRpcUrl);
@@ -39,7 +61,10 @@ public class BugzillaClient {
 
         XmlRpcClient client = new XmlRpcClient();
         client.setConfig(config);
-        //client.setTransportFactory(new XmlRpcCommonsTransportFactory(client));
+        client.setTypeFactory(new BugTypeFactory(client));
+
+        transportFactory = new PooledHttpTransportFactory(client, maxConnections);
+        client.setTransportFactory(transportFactory);
         return client;
     }
 
@@ -50,6 +75,7 @@ public class BugzillaClient {
     private class Call {
         private final String method;
         private final Multimap<String,Object> arguments = ArrayListMultimap.create();
+        private Consumer<BugRecord> consumer;
 
         public Call(String method) {
             this.method = method;
@@ -65,7 +91,56 @@ public class BugzillaClient {
             return this;
         }
 
+        public Call arguments(Map<String, Object> values) {
+            values.forEach(arguments::put);
+            return this;
+        }
+
+        public Call streaming(Consumer<BugRecord> consumer) {
+            this.consumer = consumer;
+            return this;
+        }
+
         public Map<String, Object> call() {
+            try {
+                return callOrThrow();
+            } catch (BugzillaCallException e) {
+                logger.error("Bugzilla RPC call failed: {}", e.getCause());
+                return Collections.emptyMap();
+            }
+        }
+
+        /**
+         * Same as {@link #call()}, but failures are reported instead of
+         * being turned into an empty answer.
+         *
+         * @throws BugzillaCallException when bugzilla returned a fault or the
+         *     response could not be retrieved or parsed completely
+         */
+        public Map<String, Object> callOrThrow() {
+            final String usedToken = token;
+            try {
+                return execute(usedToken);
+            } catch (XmlRpcException e) {
+                if (!LOGIN_REQUIRED_FAULTS.contains(e.code)
+                        || authorizationCallback == null
+                        || "User.login".equals(method)) {
+                    throw new BugzillaCallException(method, e);
+                }
+            }
+
+            // The token expired, log in again and retry once
+            logger.info("Bugzilla session expired, logging in again");
+            relogin(usedToken);
+            try {
+                return execute(token);
+            } catch (XmlRpcException e) {
+                throw new BugzillaCallException(method, e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<String, Object> execute(String token) throws XmlRpcException {
             Map<String, Object> flatArgs = new HashMap<>();
             for (String key: arguments.keySet()) {
                 Collection<Object> values = arguments.get(key);
@@ -82,34 +157,71 @@ public class BugzillaClient {
 
             Object[] callArgs = new Object[] {flatArgs};
             logger.info("Calling bugzilla method {} with args {}", method, callArgs);
+            final XmlRpcClient rpcClient = client;
+
             try {
-                return (Map<String,Object>)client.execute(method, callArgs);
-            } catch (XmlRpcException e) {
-                logger.error("Bugzilla RPC call failed: {}", e);
-                return Collections.emptyMap();
+                // The parser runs in the connector thread, so the consumer has to be set there
+                return ConnectorCommand.call(Connector.BUGZILLA, method, () -> {
+                    BugRecordParser.setConsumer(consumer);
+                    try {
+                        return (Map<String, Object>) rpcClient.execute(method, callArgs);
+                    } catch (XmlRpcException e) {
+                        // Faults are valid answers of a working bugzilla
+                        if (e.code != 0) {
+                            throw ConnectorCommand.badRequest(e);
+                        }
+                        throw e;
+                    } finally {
+                        BugRecordParser.setConsumer(null);
+                    }
+                });
+            } catch (XmlRpcException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new XmlRpcClientException("Bugzilla call failed: " + e.getMessage(), e);
             }
         }
     }
 
-    @SuppressWarnings("unchecked")
-    public boolean open() {
-        client = getClient();
-
-        if (authorizationCallback != null) {
-            Map<String, Object> ret = null;
-            ret = new Call("User.login")
-                    .argument("login", authorizationCallback.getName())
-                    .argument("password", authorizationCallback.getPassword())
-                    .call();
-            token = (String)ret.get("token");
+    /**
+     * Connect and log in. The session stays usable across calls,
+     * so opening an already logged in session does nothing.
+     */
+    public synchronized boolean open() {
+        if (client == null) {
+            client = getClient();
+        }
+
+        if (authorizationCallback != null && token == null) {
+            login();
         }
 
         return true;
     }
 
-    public void close() {
+    private synchronized void relogin(String staleToken) {
+        // Another thread might have refreshed the token already
+        if (Objects.equals(token, staleToken)) {
+            token = null;
+            login();
+        }
+    }
+
+    private void login() {
+        Map<String, Object> ret = new Call("User.login")
+                .argument("login", authorizationCallback.getName())
+                .argument("password", authorizationCallback.getPassword())
+                .call();
+        token = (String)ret.get("token");
+    }
+
+    public synchronized void close() {
         token = null;
         client = null;
+        if (transportFactory != null) {
+            transportFactory.close();
+            transportFactory = null;
+        }
     }
 
     public boolean isLoggedIn() {
@@ -129,48 +241,83 @@ public class BugzillaClient {
         }
     }
 
-    @SuppressWarnings("unchecked")
     public Iterable<BugProxy> searchBugs(Multimap<String, Object> params) {
         checkLoggedIn();
         Map<String, Object> ret = new Call("Bug.search")
                 .arguments(params)
                 .call();
 
-        Collection<Map<String,Object>> bugs = Arrays.asList((Object[]) ret.get("bugs"))
-                .stream().map(o -> (Map<String, Object>)o).collect(Collectors.toList());
-
-        return bugs.stream().map(BugProxy::new).collect(Collectors.toList());
+        return toProxies(ret);
     }
 
-    @SuppressWarnings("unchecked")
     public Iterable<BugProxy> getBugs(Collection<String> ids) {
         checkLoggedIn();
         Map<String, Object> ret = new Call("Bug.get")
                 .argument("ids", new ArrayList<>(ids))
                 .argument("permissive", true)
+                .argument("include_fields", BugRecord.FIELDS)
                 .call();
 
-        Collection<Map<String,Object>> bugs = Arrays.asList((Object[]) ret.get("bugs"))
-                .stream().map(o -> (Map<String, Object>)o).collect(Collectors.toList());
-
-        return bugs.stream().map(BugProxy::new).collect(Collectors.toList());
+        return toProxies(ret);
     }
 
-    @SuppressWarnings("unchecked")
-    public Iterable<BugProxy> getExtra(Collection<String> ids) {
+    /**
+     * Retrieve bugs and hand each one to the consumer as soon as it is
+     * decoded, while the rest of the response is still being parsed.
+     *
+     * The consumer might have seen some of the bugs already when the call
+     * fails, the caller has to discard them.
+     *
+     * @throws BugzillaCallException when the response is a fault, incomplete
+     *     or does not contain the bugs
+     */
+    public void getBugs(Collection<String> ids, Consumer<BugProxy> consumer) {
         checkLoggedIn();
         Map<String, Object> ret = new Call("Bug.get")
                 .argument("ids", new ArrayList<>(ids))
                 .argument("permissive", true)
+                .argument("include_fields", BugRecord.FIELDS)
+                .streaming(record -> consumer.accept(new BugProxy(record)))
+                .callOrThrow();
 
-                .argument("include_fields", "id")
-                .argument("include_fields", "flags")
-                .argument("include_fields", "external_bugs")
-                .call();
+        if (ret == null || !ret.containsKey("bugs")) {
+            throw new BugzillaCallException("Bug.get returned no bugs for " + ids);
+        }
+    }
 
-        Collection<Map<String,Object>> bugs = Arrays.asList((Object[]) ret.get("bugs"))
-                .stream().map(o -> (Map<String, Object>)o).collect(Collectors.toList());
+    /**
+     * Apply the same change to all the given bugs using a single Bug.update call.
+     *
+     * Bug.update is all or nothing, a single bug bugzilla refuses to change
+     * makes the whole call fail with a fault.
+     *
+     * @param changes Bug.update arguments, e.g. assigned_to or flags
+     * @return true when bugzilla accepted the update
+     * @throws BugzillaCallException when bugzilla refused the update or could not be reached
+     */
+    public boolean updateBugs(Collection<String> ids, Map<String, Object> changes) {
+        checkLoggedIn();
+        Map<String, Object> ret = new Call("Bug.update")
+                .argument("ids", new ArrayList<>(ids))
+                .arguments(changes)
+                .callOrThrow();
+
+        return ret.containsKey("bugs");
+    }
 
-        return bugs.stream().map(BugProxy::new).collect(Collectors.toList());
+    /**
+     * Number of response bytes received over the lifetime of this client.
+     */
+    public long getReceivedBytes() {
+        PooledHttpTransportFactory factory = transportFactory;
+        return factory != null ? factory.getReceivedBytes() : 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<BugProxy> toProxies(Map<String, Object> ret) {
+        return Arrays.stream((Object[]) ret.get("bugs"))
+                .map(o -> o instanceof BugRecord ? (BugRecord) o : BugRecord.of((Map<String, Object>) o))
+                .map(BugProxy::new)
+                .collect(Collectors.toList());
     }
 }
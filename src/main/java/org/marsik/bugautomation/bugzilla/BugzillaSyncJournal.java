@@ -0,0 +1,178 @@
+package org.marsik.bugautomation.bugzilla;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the bugzilla sync state.
+ *
+ * Every line holds either the latest snapshot of a bug or a removal
+ * marker. Later lines win when the journal is loaded, so updates only
+ * ever append and a crash can at most lose the last partial line.
+ * {@link #compact()} rewrites the file to the live entries only.
+ */
+public class BugzillaSyncJournal {
+    private static final Logger logger = LoggerFactory.getLogger(BugzillaSyncJournal.class);
+
+    private final Path path;
+    private final Gson gson = new Gson();
+    private BufferedWriter writer;
+
+    private static class Entry {
+        String id;
+        boolean removed;
+        BugzillaBugSnapshot bug;
+    }
+
+    public BugzillaSyncJournal(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public synchronized Map<String, BugzillaBugSnapshot> load() {
+        Map<String, BugzillaBugSnapshot> snapshots = new LinkedHashMap<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                final Entry entry;
+                try {
+                    entry = gson.fromJson(line, Entry.class);
+                } catch (JsonParseException ex) {
+                    logger.warn("Ignoring corrupted bugzilla journal entry in {}", path);
+                    continue;
+                }
+
+                if (entry == null || entry.id == null) {
+                    continue;
+                } else if (entry.removed || entry.bug == null) {
+                    snapshots.remove(entry.id);
+                    continue;
+                }
+
+                try {
+                    entry.bug.validate();
+                    snapshots.put(entry.id, entry.bug);
+                } catch (IllegalArgumentException ex) {
+                    // Do not fall back to an older entry of the same bug
+                    logger.warn("Ignoring invalid bugzilla journal entry for bug {}: {}", entry.id, ex.getMessage());
+                    snapshots.remove(entry.id);
+                }
+            }
+        } catch (NoSuchFileException ex) {
+            logger.info("No bugzilla journal found at {}", path);
+        } catch (IOException ex) {
+            logger.error("Could not read the bugzilla journal {}", path, ex);
+        }
+
+        return snapshots;
+    }
+
+    public synchronized void append(Collection<BugzillaBugSnapshot> snapshots) {
+        for (BugzillaBugSnapshot snapshot : snapshots) {
+            Entry entry = new Entry();
+            entry.id = snapshot.getId();
+            entry.bug = snapshot;
+            write(entry);
+        }
+        flush();
+    }
+
+    public synchronized void remove(Collection<String> ids) {
+        for (String id : ids) {
+            Entry entry = new Entry();
+            entry.id = id;
+            entry.removed = true;
+            write(entry);
+        }
+        flush();
+    }
+
+    /**
+     * Rewrite the journal so it only contains the latest snapshot of each live bug.
+     */
+    public synchronized void compact() {
+        Map<String, BugzillaBugSnapshot> snapshots = load();
+        close();
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (BugzillaBugSnapshot snapshot : snapshots.values()) {
+                Entry entry = new Entry();
+                entry.id = snapshot.getId();
+                entry.bug = snapshot;
+                out.write(gson.toJson(entry));
+                out.newLine();
+            }
+        } catch (IOException ex) {
+            logger.error("Could not compact the bugzilla journal {}", path, ex);
+            return;
+        }
+
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            logger.error("Could not replace the bugzilla journal {}", path, ex);
+        }
+    }
+
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.close();
+        } catch (IOException ex) {
+            logger.warn("Could not close the bugzilla journal {}", path, ex);
+        }
+        writer = null;
+    }
+
+    private void write(Entry entry) {
+        try {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            writer.write(gson.toJson(entry));
+            writer.newLine();
+        } catch (IOException ex) {
+            logger.error("Could not write to the bugzilla journal {}", path, ex);
+        }
+    }
+
+    private void flush() {
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.flush();
+        } catch (IOException ex) {
+            logger.error("Could not write to the bugzilla journal {}", path, ex);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.marsik.bugautomation.bugzilla;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientException;
+import org.apache.xmlrpc.client.XmlRpcHttpClientConfig;
+import org.apache.xmlrpc.client.XmlRpcHttpTransport;
+import org.apache.xmlrpc.client.XmlRpcTransport;
+import org.apache.xmlrpc.client.XmlRpcTransportFactory;
+import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
+import org.xml.sax.SAXException;
+
+/**
+ * XML-RPC transport running over a shared pool of keep-alive HTTP
+ * connections, so consecutive calls reuse the TCP and TLS session.
+ * Compressed responses are requested and decoded by the http client.
+ */
+public class PooledHttpTransportFactory implements XmlRpcTransportFactory {
+    private static final String USER_AGENT = "bugautomation";
+
+    private final XmlRpcClient client;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    public PooledHttpTransportFactory(XmlRpcClient client, int maxConnections) {
+        this.client = client;
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setUserAgent(USER_AGENT)
+                .build();
+    }
+
+    @Override
+    public XmlRpcTransport getTransport() {
+        return new PooledHttpTransport(client);
+    }
+
+    /**
+     * Number of decoded response bytes read by all transports so far.
+     */
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            // Nothing to do, the connections are gone anyway
+        }
+    }
+
+    private class PooledHttpTransport extends XmlRpcHttpTransport {
+        private HttpPost post;
+        private CloseableHttpResponse response;
+        private CountingInputStream content;
+
+        PooledHttpTransport(XmlRpcClient pClient) {
+            super(pClient, USER_AGENT);
+        }
+
+        @Override
+        public Object sendRequest(XmlRpcRequest pRequest) throws XmlRpcException {
+            XmlRpcHttpClientConfig config = (XmlRpcHttpClientConfig) pRequest.getConfig();
+            try {
+                post = new HttpPost(config.getServerURL().toURI());
+            } catch (URISyntaxException e) {
+                throw new XmlRpcClientException("Invalid server URL " + config.getServerURL(), e);
+            }
+
+            post.setConfig(RequestConfig.custom()
+                    .setConnectTimeout(config.getConnectionTimeout())
+                    .setSocketTimeout(config.getReplyTimeout())
+                    .build());
+
+            return super.sendRequest(pRequest);
+        }
+
+        @Override
+        protected void setRequestHeader(String pHeader, String pValue) {
+            // The entity takes care of the content length
+            if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(pHeader)) {
+                post.setHeader(pHeader, pValue);
+            }
+        }
+
+        @Override
+        protected void writeRequest(ReqWriter pWriter) throws XmlRpcException, IOException, SAXException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            pWriter.write(body);
+            post.setEntity(new ByteArrayEntity(body.toByteArray()));
+
+            response = httpClient.execute(post);
+            int status = response.getStatusLine().getStatusCode();
+            if (status < 200 || status > 299) {
+                String reason = response.getStatusLine().getReasonPhrase();
+                close();
+                throw new XmlRpcClientException("HTTP server returned unexpected status: " + status + " " + reason, null);
+            }
+        }
+
+        @Override
+        protected InputStream getInputStream() throws XmlRpcException {
+            try {
+                content = new CountingInputStream(response.getEntity().getContent());
+                return content;
+            } catch (IOException e) {
+                throw new XmlRpcClientException("Failed to read the server response: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        protected boolean isResponseGzipCompressed(XmlRpcStreamRequestConfig pConfig) {
+            // The http client already decompresses the response
+            // and drops the header, this only catches servers
+            // that send gzip without being asked for it
+            Header encoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+            return encoding != null && encoding.getValue().toLowerCase().contains("gzip");
+        }
+
+        @Override
+        protected void close() throws XmlRpcClientException {
+            if (response == null) {
+                return;
+            }
+
+            try {
+                // Drain the rest of the body so the connection can be reused
+                EntityUtils.consume(response.getEntity());
+                response.close();
+            } catch (IOException e) {
+                throw new XmlRpcClientException("Failed to close the connection: " + e.getMessage(), e);
+            } finally {
+                if (content != null) {
+                    receivedBytes.addAndGet(content.getByteCount());
+                    content = null;
+                }
+                response = null;
+            }
+        }
+    }
+}
@@ -2,8 +2,13 @@ package org.marsik.bugautomation.facts;
 
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -11,17 +16,72 @@ import lombok.EqualsAndHashCode;
 @Data
 @EqualsAndHashCode(of = "flag")
 public class BugzillaBugFlag {
+    private static final String FUTURE_SUFFIX = "-future";
+    private static final String GA_SUFFIX = "-ga";
+    private static final String Z_SUFFIX = ".z";
+
+    // Flag names approving a target release, see approvalNames
+    private static final Map<String, Set<String>> APPROVALS = new ConcurrentHashMap<>();
+
+    public enum Stream {
+        NONE, Z, GA, FUTURE
+    }
+
     private final String flag;
     private final LocalDateTime modifiedAt;
 
+    // Parsed form of the flag, e.g. rhevm-4.1.z+ is product rhevm,
+    // version 4.1, stream Z and status +
+    private final String name;
+    private final char status;
+    private final String product;
+    private final String version;
+    private final Stream stream;
+
     public BugzillaBugFlag(Map<String, Object> flag) {
-        this.flag = (String)flag.get("name") + flag.get("status");
-        modifiedAt = LocalDateTime.ofInstant(((Date)flag.get("modification_date")).toInstant(), ZoneId.of("UTC"));
+        this((String)flag.get("name") + flag.get("status"),
+                LocalDateTime.ofInstant(((Date)flag.get("modification_date")).toInstant(), ZoneId.of("UTC")));
     }
 
     public BugzillaBugFlag(final String flag) {
+        this(flag, LocalDateTime.now());
+    }
+
+    public BugzillaBugFlag(final String flag, final LocalDateTime modifiedAt) {
         this.flag = flag;
-        modifiedAt = LocalDateTime.now();
+        this.modifiedAt = modifiedAt;
+
+        final char last = flag.isEmpty() ? 0 : flag.charAt(flag.length() - 1);
+        if (last == '+' || last == '-' || last == '?') {
+            status = last;
+            name = flag.substring(0, flag.length() - 1);
+        } else {
+            status = 0;
+            name = flag;
+        }
+
+        String rest = name;
+        if (rest.endsWith(FUTURE_SUFFIX)) {
+            stream = Stream.FUTURE;
+            rest = rest.substring(0, rest.length() - FUTURE_SUFFIX.length());
+        } else if (rest.endsWith(GA_SUFFIX)) {
+            stream = Stream.GA;
+            rest = rest.substring(0, rest.length() - GA_SUFFIX.length());
+        } else if (rest.endsWith(Z_SUFFIX)) {
+            stream = Stream.Z;
+            rest = rest.substring(0, rest.length() - Z_SUFFIX.length());
+        } else {
+            stream = Stream.NONE;
+        }
+
+        final int dash = rest.indexOf('-');
+        if (dash > 0) {
+            product = rest.substring(0, dash);
+            version = dash + 1 < rest.length() ? rest.substring(dash + 1) : null;
+        } else {
+            product = rest;
+            version = null;
+        }
     }
 
     /**
@@ -34,14 +94,24 @@ public class BugzillaBugFlag {
      * @return true if the flag approves the given release
      */
     public boolean approves(String targetRelease) {
-        return flag.equals(targetRelease + "+") // ovirt-X.Y.Z+
-                || flag.equals(targetRelease.replace("ovirt", "rhevm") + "+") // rhevm-X.Y.Z+
-                || flag.equals(targetRelease.replaceAll("\\.[0-9]+$", ".z") + "+") // ovirt-X.Y.z+
-                || flag.equals(targetRelease.replace("ovirt", "rhevm").replaceAll("\\.[0-9]+$", ".z") + "+") // rhevm-X.Y.z+
-                || flag.equals(targetRelease.replaceAll("\\.[0-9]+$", "") + "+") // ovirt-X.Y+
-                || flag.equals(targetRelease.replace("ovirt", "rhevm").replaceAll("\\.[0-9]+$", "") + "+") // rhevm-X.Y+
-                || flag.equals(targetRelease.replaceAll("\\.[0-9]+$", "-ga") + "+") // ovirt-X.Y-ga+
-                || flag.equals(targetRelease.replace("ovirt", "rhevm").replaceAll("\\.[0-9]+$", "-ga") + "+"); // rhevm-X.Y-ga+
+        return status == '+'
+                && targetRelease != null
+                && APPROVALS.computeIfAbsent(targetRelease, BugzillaBugFlag::approvalNames).contains(name);
+    }
+
+    /**
+     * Compute the flag names (without the status) that approve the given release.
+     */
+    static Set<String> approvalNames(String targetRelease) {
+        final String rhevm = targetRelease.replace("ovirt", "rhevm");
+        final Set<String> names = new HashSet<>();
+        for (String release : Arrays.asList(targetRelease, rhevm)) {
+            names.add(release); // ovirt-X.Y.Z
+            names.add(release.replaceAll("\\.[0-9]+$", ".z")); // ovirt-X.Y.z
+            names.add(release.replaceAll("\\.[0-9]+$", "")); // ovirt-X.Y
+            names.add(release.replaceAll("\\.[0-9]+$", "-ga")); // ovirt-X.Y-ga
+        }
+        return Collections.unmodifiableSet(names);
     }
 
     /**
@@ -49,6 +119,6 @@ public class BugzillaBugFlag {
      * @return true if the flag is a future flag
      */
     public boolean futureFlag() {
-        return flag.matches(".*-future[?+]");
+        return stream == Stream.FUTURE && (status == '?' || status == '+');
     }
 }
@@ -0,0 +1,42 @@
+package org.marsik.bugautomation.facts;
+
+import java.time.Instant;
+
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * Open gerrit change, linked to a bug when the subject, topic or
+ * the Bug-Url footer of the current commit references one.
+ */
+@Data
+@EqualsAndHashCode(of = "id")
+@AllArgsConstructor
+@Builder
+public class GerritReview {
+    /**
+     * Gerrit triplet id project~branch~Change-Id
+     */
+    @NotNull
+    @NotEmpty
+    String id;
+
+    Integer number;
+    String project;
+    String branch;
+    String subject;
+    String topic;
+    String status;
+    String ownerEmail;
+    String url;
+
+    Bug bug;
+
+    Instant updated;
+}
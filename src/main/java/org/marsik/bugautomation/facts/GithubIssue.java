@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
 import javax.validation.constraints.NotNull;
@@ -74,4 +75,19 @@ public class GithubIssue implements GenericIssue {
     public String getTitleId() {
         return getRepo() + "#" + getId().toString();
     }
+
+    /**
+     * Compare everything the GitHub sync fills in, equals() only looks at the uid.
+     */
+    public boolean sameContent(GithubIssue other) {
+        return other != null
+                && Objects.equals(uid, other.uid)
+                && Objects.equals(id, other.id)
+                && Objects.equals(title, other.title)
+                && Objects.equals(description, other.description)
+                && Objects.equals(githubUrl, other.githubUrl)
+                && Objects.equals(repoOwner, other.repoOwner)
+                && Objects.equals(repo, other.repo)
+                && Objects.equals(assignedTo, other.assignedTo);
+    }
 }
@@ -2,6 +2,7 @@ package org.marsik.bugautomation.facts;
 
 import javax.validation.constraints.NotNull;
 import java.time.Instant;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
@@ -15,11 +16,18 @@ import org.codehaus.jackson.map.ext.JodaSerializers;
 import lombok.Builder;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import org.marsik.bugautomation.trello.CardDescription;
 
 @Data
 @Builder
 @EqualsAndHashCode(of = "id")
 public class TrelloCard {
+    /**
+     * The most important cards first, cards without score at the end.
+     */
+    public static final Comparator<TrelloCard> BY_SCORE = Comparator.comparing(TrelloCard::getScore,
+            Comparator.nullsLast(Comparator.<Integer>reverseOrder()));
+
     @NotNull
     String id;
 
@@ -64,7 +72,7 @@ public class TrelloCard {
     Map<String, String> fields;
 
     public String getCleanDesc() {
-        return description.replaceAll("\\{\\{[^}]*\\}\\}", " ");
+        return CardDescription.parse(description).getClean();
     }
 
     public boolean isTargeted() {
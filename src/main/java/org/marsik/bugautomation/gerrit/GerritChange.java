@@ -3,6 +3,7 @@ package org.marsik.bugautomation.gerrit;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.Date;
+import java.util.Map;
 
 import javax.xml.bind.annotation.XmlRootElement;
 
@@ -39,4 +40,26 @@ public class GerritChange extends GerritMore{
 
     @SerializedName("unresolved_comment_count")
     Integer unresolvedCommentCount;
+
+    @SerializedName("current_revision")
+    String currentRevision;
+
+    Map<String, GerritRevision> revisions;
+
+    /**
+     * Commit message of the current revision or null when the query
+     * did not request CURRENT_REVISION and CURRENT_COMMIT.
+     */
+    public String getCurrentCommitMessage() {
+        if (currentRevision == null || revisions == null) {
+            return null;
+        }
+
+        GerritRevision revision = revisions.get(currentRevision);
+        if (revision == null || revision.getCommit() == null) {
+            return null;
+        }
+
+        return revision.getCommit().getMessage();
+    }
 }
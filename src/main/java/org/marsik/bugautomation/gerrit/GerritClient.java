@@ -20,6 +20,16 @@ public interface GerritClient {
     @Consumes("application/json")
     List<GerritChange> queryChanges(@QueryParam("q") String query, @QueryParam("n") int limit);
 
+    /**
+     * The last change of a page has _more_changes set when another page
+     * can be requested by skipping the already returned changes using start.
+     */
+    @GET
+    @Path("/changes/")
+    @Consumes("application/json")
+    List<GerritChange> queryChanges(@QueryParam("q") String query, @QueryParam("n") int limit,
+            @QueryParam("S") int start, @QueryParam("o") List<String> options);
+
     @GET
     @Path("/accounts/{accountId}")
     @Consumes("application/json")
@@ -4,9 +4,11 @@ import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 
 import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
+import org.marsik.bugautomation.hystrix.Connector;
+import org.marsik.bugautomation.hystrix.ConnectorProxy;
 
 public class GerritClientBuilder {
-    private static final String GERRIT_BASE = "https://gerrit.ovirt.org";
+    public static final String GERRIT_BASE = "https://gerrit.ovirt.org";
 
     Client restClient;
 
@@ -18,6 +20,6 @@ public class GerritClientBuilder {
                 .register(new GerritGsonMessageBodyHandler())
                 .build();
         ResteasyWebTarget target = (ResteasyWebTarget)restClient.target(GERRIT_BASE);
-        return target.proxy(GerritClient.class);
+        return ConnectorProxy.wrap(GerritClient.class, target.proxy(GerritClient.class), Connector.GERRIT);
     }
 }
@@ -0,0 +1,15 @@
+package org.marsik.bugautomation.gerrit;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+import lombok.Data;
+
+@Data
+@XmlRootElement
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class GerritCommit {
+    String subject;
+    String message;
+}
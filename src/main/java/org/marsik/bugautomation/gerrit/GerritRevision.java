@@ -0,0 +1,22 @@
+package org.marsik.bugautomation.gerrit;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+import com.google.gson.annotations.SerializedName;
+import lombok.Data;
+
+/**
+ * Only filled in when the change query asks for CURRENT_REVISION,
+ * the commit needs CURRENT_COMMIT as well.
+ */
+@Data
+@XmlRootElement
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class GerritRevision {
+    @SerializedName("_number")
+    Integer number;
+
+    GerritCommit commit;
+}
@@ -20,6 +20,7 @@ public class Issue {
     List<User> assignees;
     State state;
     String html_url;
+    String updated_at;
 
     public enum State {
         open,
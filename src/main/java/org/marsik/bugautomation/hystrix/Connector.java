@@ -0,0 +1,38 @@
+package org.marsik.bugautomation.hystrix;
+
+/**
+ * External services the application talks to. Each connector gets its own
+ * Hystrix command group, circuit breakers and thread pool, so an outage of
+ * one service does not take threads away from the others.
+ */
+public enum Connector {
+    BUGZILLA("bugzilla", 60000, 10),
+    TRELLO("trello", 30000, 10),
+    GITHUB("github", 30000, 4),
+    GERRIT("gerrit", 30000, 4);
+
+    private final String name;
+    private final int timeout;
+    private final int poolSize;
+
+    Connector(String name, int timeout, int poolSize) {
+        this.name = name;
+        this.timeout = timeout;
+        this.poolSize = poolSize;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the maximal execution time of a single call in milliseconds
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+}
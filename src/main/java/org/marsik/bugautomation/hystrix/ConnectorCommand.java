@@ -0,0 +1,81 @@
+package org.marsik.bugautomation.hystrix;
+
+import java.util.concurrent.Callable;
+
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.HystrixCommandKey;
+import com.netflix.hystrix.HystrixCommandProperties;
+import com.netflix.hystrix.HystrixThreadPoolKey;
+import com.netflix.hystrix.HystrixThreadPoolProperties;
+import com.netflix.hystrix.exception.HystrixBadRequestException;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+
+/**
+ * Runs a single call to an external service in the connector's thread pool
+ * with a timeout and circuit breaking.
+ *
+ * Errors the service reports for a well formed call (unknown card, access
+ * denied, bugzilla faults) should be wrapped using {@link #badRequest(Exception)}
+ * so they do not trip the circuit breaker.
+ */
+public class ConnectorCommand<T> extends HystrixCommand<T> {
+    private final Callable<T> callable;
+
+    private ConnectorCommand(Connector connector, String command, Callable<T> callable) {
+        super(Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey(connector.getName()))
+                .andCommandKey(HystrixCommandKey.Factory.asKey(connector.getName() + "." + command))
+                .andThreadPoolKey(HystrixThreadPoolKey.Factory.asKey(connector.getName()))
+                .andCommandPropertiesDefaults(HystrixCommandProperties.Setter()
+                        .withExecutionTimeoutInMilliseconds(connector.getTimeout()))
+                .andThreadPoolPropertiesDefaults(HystrixThreadPoolProperties.Setter()
+                        .withCoreSize(connector.getPoolSize())));
+        this.callable = callable;
+    }
+
+    @Override
+    protected T run() throws Exception {
+        return callable.call();
+    }
+
+    public static HystrixBadRequestException badRequest(Exception cause) {
+        return new HystrixBadRequestException(cause.getMessage(), cause);
+    }
+
+    /**
+     * Execute the callable and wait for the result. Exceptions thrown by the
+     * callable are rethrown unchanged.
+     *
+     * @throws ConnectorUnavailableException when the call was rejected or timed out
+     */
+    public static <T> T call(Connector connector, String command, Callable<T> callable) throws Exception {
+        try {
+            return new ConnectorCommand<>(connector, command, callable).execute();
+        } catch (HystrixBadRequestException e) {
+            throw unwrap(e);
+        } catch (HystrixRuntimeException e) {
+            switch (e.getFailureType()) {
+            case COMMAND_EXCEPTION:
+            case BAD_REQUEST_EXCEPTION:
+                throw unwrap(e);
+            default:
+                throw new ConnectorUnavailableException(connector, e.getFailureType(), e.getCause());
+            }
+        }
+    }
+
+    private static Exception unwrap(Exception e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof HystrixBadRequestException) {
+            cause = cause.getCause();
+        }
+
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        } else {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.marsik.bugautomation.hystrix;
+
+import javax.ws.rs.ClientErrorException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Wraps a REST client proxy so every remote method runs as a {@link ConnectorCommand}.
+ * 4xx responses are answers of a healthy service and do not count as failures.
+ */
+public class ConnectorProxy implements InvocationHandler {
+    private final Connector connector;
+    private final Object target;
+
+    private ConnectorProxy(Connector connector, Object target) {
+        this.connector = connector;
+        this.target = target;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T wrap(Class<T> iface, T target, Connector connector) {
+        return (T) Proxy.newProxyInstance(iface.getClassLoader(),
+                new Class<?>[] { iface },
+                new ConnectorProxy(connector, target));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(target, args);
+        }
+
+        return ConnectorCommand.call(connector, method.getName(), () -> {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof ClientErrorException) {
+                    throw ConnectorCommand.badRequest((ClientErrorException) e.getCause());
+                } else if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                } else {
+                    throw e;
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,27 @@
+package org.marsik.bugautomation.hystrix;
+
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+
+/**
+ * The call was not executed or did not finish in time, because the circuit
+ * breaker is open, the connector's thread pool is full or the call timed out.
+ */
+public class ConnectorUnavailableException extends RuntimeException {
+    private final Connector connector;
+    private final HystrixRuntimeException.FailureType failureType;
+
+    public ConnectorUnavailableException(Connector connector, HystrixRuntimeException.FailureType failureType,
+            Throwable cause) {
+        super(connector.getName() + " unavailable: " + failureType, cause);
+        this.connector = connector;
+        this.failureType = failureType;
+    }
+
+    public Connector getConnector() {
+        return connector;
+    }
+
+    public HystrixRuntimeException.FailureType getFailureType() {
+        return failureType;
+    }
+}
@@ -0,0 +1,47 @@
+package org.marsik.bugautomation.hystrix;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * OkHttp interceptor executing the network call as a {@link ConnectorCommand}.
+ * Only transport errors count as failures, the response code is left to the caller.
+ *
+ * The body is read into memory inside the command, so a stalled or cut off
+ * download is covered by the timeout and reported here instead of when the
+ * caller parses the response.
+ */
+public class HystrixInterceptor implements Interceptor {
+    private final Connector connector;
+
+    public HystrixInterceptor(Connector connector) {
+        this.connector = connector;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        try {
+            return ConnectorCommand.call(connector, chain.request().method(),
+                    () -> buffered(chain.proceed(chain.request())));
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static Response buffered(Response response) throws IOException {
+        final ResponseBody body = response.body();
+        if (body == null) {
+            return response;
+        }
+
+        // bytes() closes the original body
+        return response.newBuilder()
+                .body(ResponseBody.create(body.contentType(), body.bytes()))
+                .build();
+    }
+}
@@ -0,0 +1,46 @@
+package org.marsik.bugautomation.hystrix;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import com.netflix.hystrix.HystrixCircuitBreaker;
+import com.netflix.hystrix.HystrixCommandMetrics;
+import org.marsik.bugautomation.stats.SingleStat;
+import org.marsik.bugautomation.stats.Stats;
+
+/**
+ * Exports the state of the connector circuit breakers and call latencies.
+ */
+@ApplicationScoped
+public class HystrixStats {
+    private static final double[] PERCENTILES = { 50, 90, 99 };
+
+    public Stats collect() {
+        final Stats stats = new Stats();
+
+        for (HystrixCommandMetrics metrics : HystrixCommandMetrics.getInstances()) {
+            final String connector = metrics.getCommandGroup().name();
+            final String command = metrics.getCommandKey().name();
+
+            HystrixCircuitBreaker breaker = HystrixCircuitBreaker.Factory.getInstance(metrics.getCommandKey());
+            stats.add(SingleStat.CONNECTOR_CIRCUIT_OPEN)
+                    .label("connector", connector)
+                    .label("command", command)
+                    .value(breaker != null && breaker.isOpen() ? 1 : 0);
+
+            stats.add(SingleStat.CONNECTOR_ERROR_PERCENTAGE)
+                    .label("connector", connector)
+                    .label("command", command)
+                    .value(metrics.getHealthCounts().getErrorPercentage());
+
+            for (double percentile : PERCENTILES) {
+                stats.add(SingleStat.CONNECTOR_LATENCY)
+                        .label("connector", connector)
+                        .label("command", command)
+                        .label("quantile", String.valueOf(percentile / 100))
+                        .value(metrics.getTotalTimePercentile(percentile));
+            }
+        }
+
+        return stats;
+    }
+}
@@ -3,7 +3,8 @@ package org.marsik.bugautomation.jobs;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.validation.constraints.NotNull;
-import java.net.MalformedURLException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -13,6 +14,13 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
@@ -22,13 +30,18 @@ import java.util.stream.StreamSupport;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
-import org.marsik.bugautomation.bugzilla.AuthorizationCallback;
 import org.marsik.bugautomation.bugzilla.BugProxy;
+import org.marsik.bugautomation.bugzilla.BugRecord;
+import org.marsik.bugautomation.bugzilla.BugzillaBugSnapshot;
+import org.marsik.bugautomation.bugzilla.BugzillaSyncJournal;
 import org.marsik.bugautomation.bugzilla.BugzillaClient;
 import org.marsik.bugautomation.facts.BugzillaBug;
 import org.marsik.bugautomation.facts.BugzillaPriorityLevel;
 import org.marsik.bugautomation.facts.BugzillaStatus;
+import org.marsik.bugautomation.hystrix.ConnectorUnavailableException;
 import org.marsik.bugautomation.services.BugMatchingService;
+import org.marsik.bugautomation.services.BugzillaRefetchService;
+import org.marsik.bugautomation.services.BugzillaSessionService;
 import org.marsik.bugautomation.services.ConfigurationService;
 import org.marsik.bugautomation.services.FactService;
 import org.marsik.bugautomation.services.RuleGlobalsService;
@@ -36,6 +49,7 @@ import org.marsik.bugautomation.services.StatsService;
 import org.marsik.bugautomation.services.UserMatchingService;
 import org.marsik.bugautomation.stats.SingleStat;
 import org.marsik.bugautomation.stats.Stats;
+import org.marsik.bugautomation.util.IntLongMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,6 +58,10 @@ public class BugzillaRefreshJob implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(BugzillaRefreshJob.class);
     private static final AtomicBoolean finished = new AtomicBoolean(false);
 
+    private static final int CHUNK_SIZE = 100;
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int DEFAULT_RECONCILE_INTERVAL = 3600;
+
     private static final Pattern PM_PRIO_WHITEBOARD_RE = Pattern.compile("PM-(?<score>[0-9]+)", Pattern.CASE_INSENSITIVE);
 
     @Inject
@@ -64,112 +82,204 @@ public class BugzillaRefreshJob implements Runnable {
     @Inject
     RuleGlobalsService ruleGlobalsService;
 
+    @Inject
+    BugzillaSessionService bugzillaSessionService;
+
+    @Inject
+    BugzillaRefetchService bugzillaRefetchService;
+
     // Record the last changed time of a bug we retrieved
     // to not retrieve it again when no change happened
-    private Map<String, Date> changedMap = new HashMap<>();
+    private final IntLongMap changedMap = new IntLongMap();
+
+    // The newest last_change_time seen so far, the next delta refresh
+    // asks only for bugs changed at this time or later
+    private Date highWaterMark;
+    private long lastReconciliation;
+
+    // Persisted copy of the sync state, used for warm starts
+    private BugzillaSyncJournal journal;
+    private boolean restored = false;
 
     @Override
     public void run() {
-        final Optional<String> bugzillaUrl = configurationService.get(ConfigurationService.BUGZILLA_URL);
-        final Optional<String> bugzillaUsername = configurationService.get(ConfigurationService.BUGZILLA_USERNAME);
-        final Optional<String> bugzillaPassword = configurationService.get(ConfigurationService.BUGZILLA_PASSWORD);
         final Optional<String> bugzillaOwners = configurationService.get(ConfigurationService.BUGZILLA_OWNERS);
         final Optional<String> bugzillaTeams = configurationService.get(ConfigurationService.BUGZILLA_TEAMS);
 
-        if (!bugzillaUrl.isPresent()
-                || !bugzillaUsername.isPresent()
-                || !bugzillaPassword.isPresent()) {
+        final Optional<BugzillaClient> bugzillaSession = bugzillaSessionService.getSession();
+        if (!bugzillaSession.isPresent()) {
             logger.warn("Bugzilla not configured");
             return;
         }
 
-        BugzillaClient session;
-        try {
-            session = new BugzillaClient(bugzillaUrl.get());
-        } catch (MalformedURLException e) {
-            logger.error("Bugzilla url incorrect", e);
-            return;
+        if (!restored) {
+            restoreState();
+            restored = true;
         }
 
-        //session.setBugzillaBugClass(DefaultIssue.class);
+        final int concurrency = Math.max(1, configurationService.getCachedInt(
+                ConfigurationService.BUGZILLA_CONCURRENCY, DEFAULT_CONCURRENCY));
 
-        AuthorizationCallback authCallback = new AuthorizationCallback(bugzillaUsername.get(), bugzillaPassword.get());
-        session.setAuthorizationCallback(authCallback);
+        final BugzillaClient session = bugzillaSession.get();
 
         Set<String> bugIds = new HashSet<>(); // updated bugs
         Map<String, BugzillaBug> retrievedBugs = new HashMap<>();
 
         if (session.open()) {
-            logger.info("Refreshing bugzilla bugs");
+            // Only ask for bugs changed since the last refresh unless
+            // it is time for a full reconciliation of the tracked scope
+            final long reconcileInterval = configurationService.getCachedInt(
+                    ConfigurationService.BUGZILLA_RECONCILE_INTERVAL, DEFAULT_RECONCILE_INTERVAL);
+            final boolean reconcile = highWaterMark == null
+                    || System.currentTimeMillis() - lastReconciliation >= TimeUnit.SECONDS.toMillis(reconcileInterval);
+            final Date since = reconcile ? null : highWaterMark;
+
+            if (reconcile) {
+                logger.info("Refreshing bugzilla bugs (full reconciliation)");
+            } else {
+                logger.info("Refreshing bugzilla bugs changed since {}", since);
+            }
             long startTime = System.nanoTime();
+            long startBytes = session.getReceivedBytes();
 
             // Remember the full list temporarily to keep them in the fact database
             Set<String> allKnownBugs = new HashSet<>();
+            List<BugProxy> found = new ArrayList<>();
+
+            try {
+                // Search bugs by users
+                Multimap<String, Object> searchData = ArrayListMultimap.create();
+                if (bugzillaOwners.isPresent() && !bugzillaOwners.get().trim().isEmpty()) {
+                    for (String owner : splitNames(bugzillaOwners.get())) {
+                        searchData.put("assigned_to", owner);
+                    }
+                    populateSearchData(searchData, since);
+                    session.searchBugs(searchData).forEach(found::add);
+                }
 
-            // Search bugs by users
-            Multimap<String, Object> searchData = ArrayListMultimap.create();
-            if (bugzillaOwners.isPresent() && !bugzillaOwners.get().trim().isEmpty()) {
-                for (String owner : splitNames(bugzillaOwners.get())) {
-                    searchData.put("assigned_to", owner);
+                // Search bugs by teams
+                if (bugzillaTeams.isPresent() && !bugzillaTeams.get().trim().isEmpty()) {
+                    searchData = ArrayListMultimap.create();
+                    for (String team : splitNames(bugzillaTeams.get())) {
+                        searchData.put("cf_ovirt_team", team);
+                    }
+                    populateSearchData(searchData, since);
+                    session.searchBugs(searchData).forEach(found::add);
                 }
-                populateSearchData(searchData);
-                Iterable<BugProxy> i = session.searchBugs(searchData);
-                i.forEach(b -> allKnownBugs.add(b.getId()));
-                consumeIfNewer(i, bug -> bugIds.add(bug.getId()));
+            } catch (ConnectorUnavailableException e) {
+                // Keep the last known bugs and try again next time
+                logger.warn("Bugzilla unavailable, skipping refresh: {}", e.getMessage());
+                return;
             }
 
-            // Search bugs by teams
-            if (bugzillaTeams.isPresent() && !bugzillaTeams.get().trim().isEmpty()) {
-                searchData = ArrayListMultimap.create();
-                for (String team : splitNames(bugzillaTeams.get())) {
-                    searchData.put("cf_ovirt_team", team);
-                }
-                populateSearchData(searchData);
-                Iterable<BugProxy> i = session.searchBugs(searchData);
-                i.forEach(b -> allKnownBugs.add(b.getId()));
-                consumeIfNewer(i, bug -> bugIds.add(bug.getId()));
+            found.forEach(b -> allKnownBugs.add(b.getId()));
+            consumeIfNewer(found, bug -> bugIds.add(bug.getId()));
+
+            // Bugs whose fact was changed by a failed update look unchanged
+            // to bugzilla, download them again to restore the real state
+            for (String bugId: bugzillaRefetchService.drain()) {
+                forget(bugId);
+                bugIds.add(bugId);
             }
 
-            // Retrieve all changed bugs in chunks
-            while (!bugIds.isEmpty()) {
-                List<String> chunk = bugIds.stream().limit(100).collect(Collectors.toList());
-                bugIds.removeAll(chunk);
-                retrievedBugs.putAll(retrieveAndProcess(session, chunk));
+            // Bugzilla compares the cursor against its own clock, so
+            // advance it using the server provided change times only
+            final Date newHighWaterMark = found.stream()
+                    .map(BugProxy::getLastChangeTime)
+                    .filter(Objects::nonNull)
+                    .max(Date::compareTo)
+                    .filter(d -> highWaterMark == null || d.after(highWaterMark))
+                    .orElse(highWaterMark);
+            boolean complete = true;
+
+            // Retrieve all changed bugs in chunks, keeping up to
+            // `concurrency` chunks in flight at the same time
+            final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+            final CompletionService<Map<String, BugzillaBug>> completion = new ExecutorCompletionService<>(executor);
+            final Map<Future<Map<String, BugzillaBug>>, List<String>> pending = new HashMap<>();
+
+            try {
+                while (!bugIds.isEmpty()) {
+                    List<String> chunk = bugIds.stream().limit(CHUNK_SIZE).collect(Collectors.toList());
+                    bugIds.removeAll(chunk);
+                    pending.put(completion.submit(() -> retrieveAndProcess(session, chunk)), chunk);
+                }
 
-                // Load flags
-                for (BugProxy bzExtra: session.getExtra(chunk)) {
-                    bzExtra.loadFlags(bzExtra);
-                    retrievedBugs.get(bzExtra.getId()).setFlags(bzExtra.getFlags());
+                // Merge the results into the fact database as the chunks complete
+                while (!pending.isEmpty()) {
+                    Future<Map<String, BugzillaBug>> done = completion.take();
+                    List<String> chunk = pending.remove(done);
+                    try {
+                        Map<String, BugzillaBug> chunkBugs = done.get();
+                        factService.addOrUpdateFacts(chunkBugs.values());
+                        retrievedBugs.putAll(chunkBugs);
+
+                        if (journal != null) {
+                            journal.append(chunkBugs.values().stream()
+                                    .map(this::snapshotOf)
+                                    .collect(Collectors.toList()));
+                        }
+                    } catch (ExecutionException e) {
+                        // Make sure the failed bugs are retrieved again next time
+                        logger.error("Could not retrieve bugzilla bugs {}", chunk, e.getCause());
+                        chunk.forEach(this::forget);
+                        bugzillaRefetchService.refetch(chunk);
+                        complete = false;
+                    }
                 }
+            } catch (InterruptedException e) {
+                logger.warn("Bugzilla refresh interrupted");
+                pending.values().forEach(chunk -> chunk.forEach(this::forget));
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                executor.shutdownNow();
             }
 
-            logger.info("Retrieved {} changed bugs out of {} total.",
-                    retrievedBugs.size(), allKnownBugs.size());
-
-            // Close the session
-            session.close();
+            logger.info("Retrieved {} changed bugs out of {} {}.",
+                    retrievedBugs.size(), allKnownBugs.size(), reconcile ? "total" : "changed");
 
-            // Update fact database
-            retrievedBugs.values().stream().forEach(factService::addOrUpdateFact);
+            // Keep the old cursor when some bugs failed to load so
+            // the next delta query returns them again
+            if (complete) {
+                highWaterMark = newHighWaterMark;
+            }
 
-            // Forget about bugs that were assigned out of scope
-            Collection<BugzillaBug> bugsToRemove = ruleGlobalsService.getBugzillaBugs();
-            bugsToRemove = bugsToRemove.stream()
-                    .filter(b -> !allKnownBugs.contains(b.getId()))
-                    .collect(Collectors.toList());
+            final Stats stats = new Stats();
 
-            logger.info("Forgetting about bugs: {}", bugsToRemove.stream()
-                    .map(BugzillaBug::getId).collect(Collectors.toList()));
+            if (reconcile) {
+                // Forget about bugs that were assigned out of scope
+                Collection<BugzillaBug> bugsToRemove = ruleGlobalsService.getBugzillaBugs();
+                bugsToRemove = bugsToRemove.stream()
+                        .filter(b -> !allKnownBugs.contains(b.getId()))
+                        .collect(Collectors.toList());
+
+                logger.info("Forgetting about bugs: {}", bugsToRemove.stream()
+                        .map(BugzillaBug::getId).collect(Collectors.toList()));
+
+                bugsToRemove.stream()
+                        .peek(b -> forget(b.getId()))
+                        .forEach(factService::removeFact);
+
+                if (journal != null) {
+                    journal.remove(bugsToRemove.stream()
+                            .map(BugzillaBug::getId)
+                            .collect(Collectors.toList()));
+                    journal.compact();
+                }
 
-            bugsToRemove.stream()
-                    .peek(b -> changedMap.remove(b.getId()))
-                    .forEach(factService::removeFact);
+                lastReconciliation = System.currentTimeMillis();
+                stats.add(SingleStat.BUGS_RECONCILE_SIZE).value(allKnownBugs.size());
+                stats.add(SingleStat.BUGS_RECONCILE_TIME).value(System.nanoTime() - startTime);
+            } else {
+                stats.add(SingleStat.BUGS_DELTA_SIZE).value(allKnownBugs.size());
+            }
 
             finished.set(true);
             long elapsedTime = System.nanoTime() - startTime;
 
-            final Stats stats = new Stats();
             stats.add(SingleStat.BUGS_REFRESH_TIME).value(elapsedTime);
+            stats.add(SingleStat.BUGS_RESPONSE_BYTES).value(session.getReceivedBytes() - startBytes);
             statsService.merge(stats);
 
             logger.info("Bugzilla refresh done ({} ms)", (float)elapsedTime / 1000000);
@@ -177,18 +287,71 @@ public class BugzillaRefreshJob implements Runnable {
 
     }
 
+    /**
+     * Load the bugs retrieved before the last shutdown into the fact
+     * database, so the rules can start without waiting for the first
+     * bugzilla refresh and only bugs changed in the meantime are
+     * downloaded again.
+     */
+    private void restoreState() {
+        final Optional<String> statePath = configurationService.get(ConfigurationService.BUGZILLA_STATE);
+        if (!statePath.isPresent()) {
+            return;
+        }
+
+        journal = new BugzillaSyncJournal(Paths.get(statePath.get()));
+        List<BugzillaBug> restoredBugs = new ArrayList<>();
+
+        for (BugzillaBugSnapshot snapshot : journal.load().values()) {
+            final BugzillaBug bug;
+            final int bugId;
+            try {
+                bug = snapshot.toBug(bugMatchingService::getBugByBzId, userMatchingService::getByBugzilla);
+                bugId = Integer.parseInt(bug.getId());
+            } catch (IllegalArgumentException ex) {
+                logger.warn("Ignoring invalid bugzilla journal entry for bug {}: {}", snapshot.getId(), ex.getMessage());
+                continue;
+            }
+
+            final Date lastChange = new Date(snapshot.getLastChangeTime());
+            changedMap.put(bugId, snapshot.getLastChangeTime());
+            if (highWaterMark == null || lastChange.after(highWaterMark)) {
+                highWaterMark = lastChange;
+            }
+            restoredBugs.add(bug);
+        }
+
+        if (!restoredBugs.isEmpty()) {
+            factService.addOrUpdateFacts(restoredBugs);
+            finished.set(true);
+        }
+
+        logger.info("Restored {} bugs from {}", restoredBugs.size(), journal.getPath());
+    }
+
+    private BugzillaBugSnapshot snapshotOf(BugzillaBug bug) {
+        return BugzillaBugSnapshot.of(bug,
+                changedMap.get(Integer.parseInt(bug.getId()), 0),
+                bug.getAssignedTo() == null ? null : userMatchingService.getBugzilla(bug.getAssignedTo()).orElse(null));
+    }
+
     private void consumeIfNewer(Iterable<BugProxy> list, Consumer<BugProxy> consumer) {
         StreamSupport.stream(list.spliterator(), false)
-                .filter(bug -> !Objects.equals(bug.getLastChangeTime(), changedMap.get(bug.getId())))
-                .peek(bug -> changedMap.put(bug.getId(), bug.getLastChangeTime()))
+                .filter(bug -> bug.getLastChangeTimeMillis() != changedMap.get(bug.getNumericId(), BugRecord.NO_TIME))
+                .peek(bug -> changedMap.put(bug.getNumericId(), bug.getLastChangeTimeMillis()))
                 .forEach(consumer);
     }
 
+    // Make sure the bug is retrieved again during the next refresh
+    private void forget(String bugId) {
+        changedMap.remove(Integer.parseInt(bugId));
+    }
+
     private String[] splitNames(@NotNull String commaSeparatedNames) {
         return commaSeparatedNames.split(" *, *");
     }
 
-    private void populateSearchData(Multimap<String, Object> searchData) {
+    private void populateSearchData(Multimap<String, Object> searchData, Date since) {
         searchData.put("bug_status", "NEW");
         searchData.put("bug_status", "ASSIGNED");
         searchData.put("bug_status", "POST");
@@ -198,80 +361,92 @@ public class BugzillaRefreshJob implements Runnable {
 
         searchData.put("include_fields", "id");
         searchData.put("include_fields", "last_change_time");
+
+        if (since != null) {
+            searchData.put("last_change_time", since);
+        }
     }
 
     private Map<String, BugzillaBug> retrieveAndProcess(BugzillaClient session, List<String> bugIds) {
         Map<String, BugzillaBug> kiBugs = new HashMap<>();
-        Iterable<BugProxy> i = session.getBugs(bugIds);
-        for (BugProxy issue : i) {
-             BugzillaBug.BugzillaBugBuilder bugzillaBugBuilder = BugzillaBug.builder()
-                     .id(issue.getId())
-                     .uid("bz-" + issue.getId())
-                     .community(issue.getCommunity().toLowerCase().trim().replace(" ", ""))
-                     .title(issue.getSummary())
-                     .description(issue.getDescription())
-                     .status(BugzillaStatus.valueOf(issue.getStatus().toUpperCase()))
-                     .bug(bugMatchingService.getBugByBzId(issue.getId()))
-                     .severity(BugzillaPriorityLevel.valueOf(issue.getSeverity().toUpperCase()))
-                     .priority(BugzillaPriorityLevel.valueOf(issue.getPriority().toUpperCase()))
-                     .pmScore(0)
-                     .pmPriority(Integer.MAX_VALUE)
-                     .verified(issue.getVerified().stream().map(String::toLowerCase).collect(Collectors.toSet()))
-                     .keywords(issue.getKeywords().stream().map(String::toLowerCase).collect(Collectors.toSet()))
-                     .blocks(issue.getBlocks().stream().map(bugMatchingService::getBugByBzId).collect(Collectors.toSet()));
-
-            if (issue.getTargetMilestone() != null) {
-                bugzillaBugBuilder.targetMilestone(configurationService.resolveRelease(issue.getTargetMilestone()));
-            }
 
-            if (issue.getTargetRelease() != null) {
-                bugzillaBugBuilder.targetRelease(issue.getTargetRelease());
-            }
+        // Bugs are converted one by one while the response is being decoded,
+        // a failed call throws so the whole chunk is retrieved again later
+        session.getBugs(bugIds, issue -> {
+            BugzillaBug bugzillaBug = convert(issue);
+            kiBugs.put(bugzillaBug.getId(), bugzillaBug);
+        });
 
-            if (issue.getWhiteBoard() != null && !issue.getWhiteBoard().isEmpty()) {
-                int highestPrio = Integer.MAX_VALUE;
-                Matcher pmPrioWbMatch = PM_PRIO_WHITEBOARD_RE.matcher(issue.getWhiteBoard());
-                while (pmPrioWbMatch.find()) {
-                    highestPrio = Math.min(highestPrio, Integer.parseInt(pmPrioWbMatch.group("score")));
-                }
-                bugzillaBugBuilder.pmPriority(highestPrio);
-            }
+        return kiBugs;
+    }
+
+    private BugzillaBug convert(BugProxy issue) {
+        BugzillaBug.BugzillaBugBuilder bugzillaBugBuilder = BugzillaBug.builder()
+                .id(issue.getId())
+                .uid("bz-" + issue.getId())
+                .community(issue.getCommunity().toLowerCase().trim().replace(" ", ""))
+                .title(issue.getSummary())
+                .description(issue.getDescription())
+                .status(BugzillaStatus.valueOf(issue.getStatus().toUpperCase()))
+                .bug(bugMatchingService.getBugByBzId(issue.getId()))
+                .severity(BugzillaPriorityLevel.valueOf(issue.getSeverity().toUpperCase()))
+                .priority(BugzillaPriorityLevel.valueOf(issue.getPriority().toUpperCase()))
+                .pmScore(0)
+                .pmPriority(Integer.MAX_VALUE)
+                .verified(issue.getVerified().stream().map(String::toLowerCase).collect(Collectors.toSet()))
+                .keywords(issue.getKeywords().stream().map(String::toLowerCase).collect(Collectors.toSet()))
+                .flags(issue.getFlags())
+                .blocks(issue.getBlocks().stream().map(bugMatchingService::getBugByBzId).collect(Collectors.toSet()));
+
+        if (issue.getTargetMilestone() != null) {
+            bugzillaBugBuilder.targetMilestone(configurationService.resolveRelease(issue.getTargetMilestone()));
+        }
 
-            /*
-            Disable PM score temporarily, because there are old numbers in BZ
-            and the PMs are not using this field ATM.
+        if (issue.getTargetRelease() != null) {
+            bugzillaBugBuilder.targetRelease(issue.getTargetRelease());
+        }
 
-            if (issue.getPmScore() != null && !issue.getPmScore().isEmpty()) {
-                final Integer pmScore = Integer.valueOf(issue.getPmScore());
-                bugzillaBugBuilder.pmScore(pmScore);
+        if (issue.getWhiteBoard() != null && !issue.getWhiteBoard().isEmpty()) {
+            int highestPrio = Integer.MAX_VALUE;
+            Matcher pmPrioWbMatch = PM_PRIO_WHITEBOARD_RE.matcher(issue.getWhiteBoard());
+            while (pmPrioWbMatch.find()) {
+                highestPrio = Math.min(highestPrio, Integer.parseInt(pmPrioWbMatch.group("score")));
             }
-            */
-
-            BugzillaBug bugzillaBug = bugzillaBugBuilder.build();
-
-            logger.debug("Bug found: {} - {}/{} (prio: {}, sc: {}) - {} - {} - {}",
-                    issue.getId(),
-                    bugzillaBug.getPriority().getSymbol(),
-                    bugzillaBug.getSeverity().getSymbol(),
-                    bugzillaBug.getPmPriority(),
-                    bugzillaBug.getPmScore(),
-                    bugzillaBug.getStatus(),
-                    issue.getAssignedTo(),
-                    issue.getSummary());
-
-            userMatchingService.getByBugzilla(issue.getAssignedTo()).ifPresent(
-                    u -> {
-                        logger.debug("Bug {} ({}) assigned to {}", issue.getId(),
-                                bugzillaBug.getBug().getId(),
-                                u.getName());
-                        bugzillaBug.setAssignedTo(u);
-                    }
-            );
+            bugzillaBugBuilder.pmPriority(highestPrio);
+        }
 
-            kiBugs.put(bugzillaBug.getId(), bugzillaBug);
+        /*
+        Disable PM score temporarily, because there are old numbers in BZ
+        and the PMs are not using this field ATM.
+
+        if (issue.getPmScore() != null && !issue.getPmScore().isEmpty()) {
+            final Integer pmScore = Integer.valueOf(issue.getPmScore());
+            bugzillaBugBuilder.pmScore(pmScore);
         }
+        */
+
+        BugzillaBug bugzillaBug = bugzillaBugBuilder.build();
+
+        logger.debug("Bug found: {} - {}/{} (prio: {}, sc: {}) - {} - {} - {}",
+                issue.getId(),
+                bugzillaBug.getPriority().getSymbol(),
+                bugzillaBug.getSeverity().getSymbol(),
+                bugzillaBug.getPmPriority(),
+                bugzillaBug.getPmScore(),
+                bugzillaBug.getStatus(),
+                issue.getAssignedTo(),
+                issue.getSummary());
+
+        userMatchingService.getByBugzilla(issue.getAssignedTo()).ifPresent(
+                u -> {
+                    logger.debug("Bug {} ({}) assigned to {}", issue.getId(),
+                            bugzillaBug.getBug().getId(),
+                            u.getName());
+                    bugzillaBug.setAssignedTo(u);
+                }
+        );
 
-        return kiBugs;
+        return bugzillaBug;
     }
 
     public static AtomicBoolean getFinished() {
@@ -1,18 +1,63 @@
 package org.marsik.bugautomation.jobs;
 
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
 
+import org.marsik.bugautomation.facts.Bug;
+import org.marsik.bugautomation.facts.GerritReview;
+import org.marsik.bugautomation.gerrit.GerritChange;
+import org.marsik.bugautomation.gerrit.GerritClient;
+import org.marsik.bugautomation.gerrit.GerritClientBuilder;
+import org.marsik.bugautomation.hystrix.ConnectorUnavailableException;
 import org.marsik.bugautomation.services.BugMatchingService;
 import org.marsik.bugautomation.services.ConfigurationService;
 import org.marsik.bugautomation.services.FactService;
+import org.marsik.bugautomation.services.RuleGlobalsService;
+import org.marsik.bugautomation.services.StatsService;
 import org.marsik.bugautomation.services.UserMatchingService;
+import org.marsik.bugautomation.stats.SingleStat;
+import org.marsik.bugautomation.stats.Stats;
+
+import lombok.extern.slf4j.Slf4j;
 
 /**
- * Use https://github.com/uwolfer/gerrit-rest-java-client
+ * Keeps the open gerrit changes in the fact database. A full listing is only
+ * done every reconcile interval, the refreshes in between ask for the changes
+ * updated since the newest change seen so far.
  */
+@Slf4j
 @ApplicationScoped
 public class GerritRefreshJob implements Runnable {
+    private static final int PAGE_SIZE = 100;
+    private static final int DEFAULT_RECONCILE_INTERVAL = 3600;
+    private static final List<String> QUERY_OPTIONS = Arrays.asList("CURRENT_REVISION", "CURRENT_COMMIT");
+    private static final Set<String> CLOSED_STATUSES = new HashSet<>(Arrays.asList("MERGED", "ABANDONED"));
+    private static final DateTimeFormatter GERRIT_TIME = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd HH:mm:ss.SSS Z")
+            .withZone(ZoneOffset.UTC);
+    private static final Pattern RE_BUG_URL = Pattern.compile("^Bug-Url:\\s*(\\S+)\\s*$",
+            Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
+
     @Inject
     FactService factService;
 
@@ -25,8 +70,189 @@ public class GerritRefreshJob implements Runnable {
     @Inject
     BugMatchingService bugMatchingService;
 
+    @Inject
+    RuleGlobalsService ruleGlobalsService;
+
+    @Inject
+    StatsService statsService;
+
+    GerritClient gerritClient;
+
+    private Instant highWaterMark;
+    private long lastReconciliation;
+
     @Override
     public void run() {
+        final Optional<String> scope = getScope();
+        if (!scope.isPresent()) {
+            log.error("Gerrit not configured. Skipping.");
+            return;
+        }
+
+        if (gerritClient == null) {
+            gerritClient = new GerritClientBuilder().build();
+        }
+
+        final long reconcileInterval = TimeUnit.SECONDS.toMillis(configurationService.getCachedInt(
+                ConfigurationService.GERRIT_RECONCILE_INTERVAL, DEFAULT_RECONCILE_INTERVAL));
+        final boolean reconcile = highWaterMark == null
+                || System.currentTimeMillis() - lastReconciliation >= reconcileInterval;
+
+        // Deltas include merged and abandoned changes so they can be forgotten
+        final String query = reconcile
+                ? "status:open " + scope.get()
+                : scope.get() + " after:\"" + GERRIT_TIME.format(highWaterMark) + "\"";
+
+        if (reconcile) {
+            log.info("Refreshing gerrit changes (full reconciliation)");
+        } else {
+            log.info("Refreshing gerrit changes updated since {}", highWaterMark);
+        }
+
+        long startTime = System.nanoTime();
+        final List<GerritChange> changes;
+        try {
+            changes = queryAll(query);
+        } catch (ConnectorUnavailableException e) {
+            log.warn("Gerrit unavailable, keeping the last known changes: {}", e.getMessage());
+            return;
+        } catch (WebApplicationException | ProcessingException e) {
+            log.error("Could not retrieve gerrit changes for {}", query, e);
+            return;
+        }
+
+        Map<String, GerritReview> retrieved = new HashMap<>();
+        Set<String> closed = new HashSet<>();
+        for (GerritChange change: changes) {
+            if (CLOSED_STATUSES.contains(change.getStatus())) {
+                closed.add(change.getId());
+            } else {
+                retrieved.put(change.getId(), toFact(change));
+            }
+        }
+
+        Map<String, GerritReview> known = ruleGlobalsService.getGerritReviews().stream()
+                .collect(Collectors.toMap(GerritReview::getId, r -> r));
+
+        // Gerrit bumps the updated timestamp on every change to the review
+        List<GerritReview> changed = retrieved.values().stream()
+                .filter(r -> !known.containsKey(r.getId())
+                        || !Objects.equals(known.get(r.getId()).getUpdated(), r.getUpdated()))
+                .collect(Collectors.toList());
+
+        List<GerritReview> toRemove = known.values().stream()
+                .filter(r -> reconcile ? !retrieved.containsKey(r.getId()) : closed.contains(r.getId()))
+                .collect(Collectors.toList());
+
+        log.info("Retrieved {} gerrit changes: {} changed, forgetting about {}",
+                changes.size(), changed.size(),
+                toRemove.stream().map(GerritReview::getNumber).collect(Collectors.toList()));
+
+        if (!changed.isEmpty()) {
+            factService.addOrUpdateFacts(changed);
+        }
+        toRemove.forEach(factService::removeFact);
+
+        highWaterMark = changes.stream()
+                .map(GerritChange::getUpdated)
+                .filter(Objects::nonNull)
+                .filter(u -> highWaterMark == null || u.isAfter(highWaterMark))
+                .max(Instant::compareTo)
+                .orElse(highWaterMark);
+        if (reconcile) {
+            // Do not query everything again when there are no open changes at all
+            if (highWaterMark == null) {
+                highWaterMark = Instant.now();
+            }
+            lastReconciliation = System.currentTimeMillis();
+        }
+
+        long elapsedTime = System.nanoTime() - startTime;
+        log.info("Gerrit refresh finished ({} ms)", (float)elapsedTime / 1000000);
+
+        final String mode = reconcile ? "snapshot" : "delta";
+        final Stats stats = new Stats();
+        stats.add(SingleStat.GERRIT_REFRESH_TIME)
+                .label("mode", mode)
+                .value(elapsedTime);
+        stats.add(SingleStat.GERRIT_CHANGES)
+                .label("mode", mode)
+                .value(changes.size());
+        statsService.merge(stats);
+    }
+
+    /**
+     * Page through all the changes matching the query.
+     */
+    List<GerritChange> queryAll(String query) {
+        List<GerritChange> all = new ArrayList<>();
+
+        while (true) {
+            List<GerritChange> page = gerritClient.queryChanges(query, PAGE_SIZE, all.size(), QUERY_OPTIONS);
+            if (page == null || page.isEmpty()) {
+                break;
+            }
+
+            all.addAll(page);
+            if (!page.get(page.size() - 1).isMoreChanges()) {
+                break;
+            }
+        }
+
+        return all;
+    }
+
+    private GerritReview toFact(GerritChange change) {
+        return GerritReview.builder()
+                .id(change.getId())
+                .number(change.getNumber())
+                .project(change.getProject())
+                .branch(change.getBranch())
+                .subject(change.getSubject())
+                .topic(change.getTopic())
+                .status(change.getStatus())
+                .ownerEmail(change.getOwner() != null ? change.getOwner().getEmail() : null)
+                .url(GerritClientBuilder.GERRIT_BASE + "/" + change.getNumber())
+                .bug(identifyBug(change).orElse(null))
+                .updated(change.getUpdated())
+                .build();
+    }
+
+    /**
+     * The Bug-Url footer is the most reliable reference, the subject
+     * and the topic are only checked when it is missing.
+     */
+    Optional<Bug> identifyBug(GerritChange change) {
+        final String message = change.getCurrentCommitMessage();
+        if (message != null) {
+            Matcher matcher = RE_BUG_URL.matcher(message);
+            while (matcher.find()) {
+                Optional<Bug> bug = bugMatchingService.identifyBug(matcher.group(1));
+                if (bug.isPresent()) {
+                    return bug;
+                }
+            }
+        }
+
+        return Stream.of(change.getSubject(), change.getTopic())
+                .filter(Objects::nonNull)
+                .map(bugMatchingService::identifyBug)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .findFirst();
+    }
+
+    private Optional<String> getScope() {
+        final Optional<String> query = configurationService.get(ConfigurationService.GERRIT_QUERY);
+        if (query.isPresent()) {
+            return Optional.of("(" + query.get() + ")");
+        }
 
+        return configurationService.get(ConfigurationService.BUGZILLA_OWNERS)
+                .map(owners -> Stream.of(owners.split("[ ,]+"))
+                        .filter(o -> !o.isEmpty())
+                        .map(o -> "owner:" + o)
+                        .collect(Collectors.joining(" OR ", "(", ")")))
+                .filter(q -> !"()".equals(q));
     }
 }
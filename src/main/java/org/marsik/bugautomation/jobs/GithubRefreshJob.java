@@ -1,43 +1,67 @@
 package org.marsik.bugautomation.jobs;
 
 import java.io.IOException;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
 import org.marsik.bugautomation.facts.Bug;
 import org.marsik.bugautomation.facts.GithubIssue;
 import org.marsik.bugautomation.github.Issue;
 import org.marsik.bugautomation.github.User;
+import org.marsik.bugautomation.hystrix.Connector;
+import org.marsik.bugautomation.hystrix.ConnectorUnavailableException;
+import org.marsik.bugautomation.hystrix.HystrixInterceptor;
 import org.marsik.bugautomation.services.BugMatchingService;
 import org.marsik.bugautomation.services.ConfigurationService;
 import org.marsik.bugautomation.services.FactService;
 import org.marsik.bugautomation.services.RuleGlobalsService;
+import org.marsik.bugautomation.services.StatsService;
 import org.marsik.bugautomation.services.UserMatchingService;
+import org.marsik.bugautomation.stats.SingleStat;
+import org.marsik.bugautomation.stats.Stats;
 
+import com.google.common.base.Throwables;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import lombok.Getter;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
 @Slf4j
+@ApplicationScoped
 public class GithubRefreshJob implements Runnable {
     private static final String GITHUB_API = "api.github.com";
     private static final String GITHUB_API_VERSION = "application/vnd.github.v3+json";
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int DEFAULT_PER_PAGE = 100;
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int DEFAULT_RECONCILE_INTERVAL = 3600;
 
     @Getter
     private static final AtomicBoolean finished = new AtomicBoolean(false);
@@ -57,15 +81,50 @@ public class GithubRefreshJob implements Runnable {
     @Inject
     RuleGlobalsService ruleGlobalsService;
 
+    @Inject
+    StatsService statsService;
+
+    private final Map<Repo, RepoState> repoStates = new ConcurrentHashMap<>();
+    // Full listings and since= deltas use different URLs, keeping them apart
+    // lets each listing replace only its own pages
+    private final Map<Repo, Map<String, CachedPage>> snapshotPages = new ConcurrentHashMap<>();
+    private final Map<Repo, Map<String, CachedPage>> deltaPages = new ConcurrentHashMap<>();
+    private final AtomicLong pagesModified = new AtomicLong();
+    private final AtomicLong pagesNotModified = new AtomicLong();
+    private final AtomicLong rateLimitRemaining = new AtomicLong(-1);
+
     OkHttpClient httpClient = new OkHttpClient.Builder()
             .followRedirects(true)
+            // Async calls only report IOExceptions to the callback
+            .addInterceptor(chain -> {
+                try {
+                    return chain.proceed(chain.request());
+                } catch (ConnectorUnavailableException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            })
+            .addInterceptor(new HystrixInterceptor(Connector.GITHUB))
             .build();
 
     // TODO unify the object mappers when RestEasy is replaced with OkHttp3
     Gson gson = new Gson();
 
     @Value
-    private static class Repo {
+    private static class CachedPage {
+        String etag;
+        List<Issue> issues;
+        String next;
+    }
+
+    @Value
+    private static class RepoState {
+        // updated_at of the newest issue seen, null forces a snapshot
+        String since;
+        long lastSnapshot;
+    }
+
+    @Value
+    static class Repo {
         String owner;
         String repo;
     }
@@ -80,87 +139,331 @@ public class GithubRefreshJob implements Runnable {
             return;
         }
 
+        final int perPage = configurationService.getCachedInt(ConfigurationService.GITHUB_PER_PAGE, DEFAULT_PER_PAGE);
+        final long reconcileInterval = TimeUnit.SECONDS.toMillis(configurationService.getCachedInt(
+                ConfigurationService.GITHUB_RECONCILE_INTERVAL, DEFAULT_RECONCILE_INTERVAL));
+        httpClient.dispatcher().setMaxRequestsPerHost(Math.max(1, configurationService.getCachedInt(
+                ConfigurationService.GITHUB_CONCURRENCY, DEFAULT_CONCURRENCY)));
+
         List<Repo> repos = Stream.of(watchRepos.get().split("[ ,]+"))
                 .map(s -> s.split("/"))
                 .map(ss -> new Repo(ss[0], ss[1]))
                 .collect(Collectors.toList());
 
+        long startTime = System.nanoTime();
+
+        // Start all repositories at once, the dispatcher limits the parallelism
+        final Map<Repo, Boolean> snapshots = new HashMap<>();
+        final Map<Repo, List<Issue>> results = new ConcurrentHashMap<>();
+        final List<CompletableFuture<?>> pending = new ArrayList<>();
+
         for (Repo repo: repos) {
+            final RepoState state = repoStates.get(repo);
+            final boolean snapshot = state == null
+                    || state.getSince() == null
+                    || System.currentTimeMillis() - state.getLastSnapshot() >= reconcileInterval;
+            snapshots.put(repo, snapshot);
+
             HttpUrl.Builder url = new HttpUrl.Builder()
                     .scheme("https")
                     .host(GITHUB_API)
                     .addPathSegment("repos")
                     .addPathSegment(repo.getOwner())
                     .addPathSegment(repo.getRepo())
-                    .addPathSegment("issues");
-
-            Request.Builder request = new Request.Builder()
-                    .url(url.build())
-                    .header("User-Agent", userAgent.get())
-                    .header("Accept", GITHUB_API_VERSION);
-
-            final List<Issue> issues;
+                    .addPathSegment("issues")
+                    .addQueryParameter("per_page", String.valueOf(perPage));
+
+            if (snapshot) {
+                log.info("Refreshing issues for github {}/{} (full snapshot)", repo.getOwner(), repo.getRepo());
+            } else {
+                // Closed issues are needed as well to forget about them
+                log.info("Refreshing issues for github {}/{} updated since {}",
+                        repo.getOwner(), repo.getRepo(), state.getSince());
+                url.addQueryParameter("state", "all")
+                        .addQueryParameter("sort", "updated")
+                        .addQueryParameter("direction", "asc")
+                        .addQueryParameter("since", state.getSince());
+            }
 
-            log.info("Refreshing issues for github {}/{}", repo.getOwner(), repo.getRepo());
+            pending.add(fetchIssues(repo, userAgent.get(), url.build(), snapshot)
+                    .handle((issues, ex) -> {
+                        final Optional<Throwable> unavailable = ex == null ? Optional.empty()
+                                : Throwables.getCausalChain(ex).stream()
+                                        .filter(ConnectorUnavailableException.class::isInstance)
+                                        .findFirst();
+                        if (ex == null) {
+                            results.put(repo, issues);
+                        } else if (unavailable.isPresent()) {
+                            log.warn("GitHub unavailable, keeping the last known issues for {}: {}",
+                                    repo, unavailable.get().getMessage());
+                        } else {
+                            log.error("Could not retrieve the list of issues from {}", repo, ex);
+                        }
+                        return null;
+                    }));
+        }
 
-            try (Response response = httpClient.newCall(request.build()).execute()) {
-                if (!response.isSuccessful()) {
-                    log.error("Could not retrieve the list of issues from {}: {}", repo, response.toString());
-                    continue;
-                }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[pending.size()])).join();
 
-                String body = response.body().string();
-                issues = gson.fromJson(body, new TypeToken<List<Issue>>(){}.getType());
-            } catch (IOException e) {
-                log.error("Could not retrieve the list of issues from {}", repo, e);
+        // Apply the results from this thread so the fact updates stay ordered
+        for (Repo repo: repos) {
+            final List<Issue> issues = results.get(repo);
+            if (issues == null) {
                 continue;
             }
+            final boolean snapshot = snapshots.get(repo);
 
             log.info("Retrieved {} github issues for {}/{}",
                     issues.size(), repo.getOwner(), repo.getRepo());
 
             Map<String, GithubIssue> retrievedIssues = new HashMap<>();
+            Set<String> closedIssues = new HashSet<>();
 
             for (Issue issue: issues) {
-                Bug bug = new Bug("github-" + issue.getId().toString());
-                GithubIssue kiIssue = GithubIssue.builder()
-                        .id(issue.getNumber())
-                        .uid(bug.getId())
-                        .bug(bug)
-                        .title(issue.getTitle())
-                        .description(issue.getBody())
-                        .githubUrl(issue.getHtml_url())
-                        .repo(repo.getRepo())
-                        .repoOwner(repo.getOwner())
-                        .build();
-
-                for (User u: issue.getAssignees()) {
-                    userMatchingService.getByGithub(u.getLogin()).ifPresent(kiIssue.getAssignedTo()::add);
+                GithubIssue kiIssue = toFact(repo, issue);
+                if (issue.getState() == Issue.State.closed) {
+                    closedIssues.add(kiIssue.getUid());
+                } else {
+                    retrievedIssues.put(kiIssue.getUid(), kiIssue);
                 }
+            }
 
-                if (issue.getAssignee() != null) {
-                    userMatchingService.getByGithub(issue.getAssignee().getLogin()).ifPresent(kiIssue.getAssignedTo()::add);
-                }
+            if (snapshot) {
+                syncPartition(repo, retrievedIssues);
+            } else {
+                syncPartition(repo, retrievedIssues, i -> closedIssues.contains(i.getUid()));
+            }
+
+            // updated_at is ISO 8601 in UTC so the text order is the time order
+            final RepoState previous = repoStates.get(repo);
+            final String since = issues.stream()
+                    .map(Issue::getUpdated_at)
+                    .filter(Objects::nonNull)
+                    .max(Comparator.naturalOrder())
+                    .orElse(snapshot || previous == null ? null : previous.getSince());
+            final long lastSnapshot = snapshot || previous == null ? System.currentTimeMillis() : previous.getLastSnapshot();
+            repoStates.put(repo, new RepoState(since, lastSnapshot));
+        }
+
+        // Forget partitions of repositories that are no longer watched
+        Set<Repo> watched = new HashSet<>(repos);
+        repoStates.keySet().retainAll(watched);
+        snapshotPages.keySet().retainAll(watched);
+        deltaPages.keySet().retainAll(watched);
+        List<GithubIssue> unwatched = ruleGlobalsService.getGithubIssues().stream()
+                .filter(i -> !watched.contains(new Repo(i.getRepoOwner(), i.getRepo())))
+                .collect(Collectors.toList());
+        if (!unwatched.isEmpty()) {
+            log.info("Forgetting about issues from unwatched repositories: {}", unwatched.stream()
+                    .map(GithubIssue::getTitleId).collect(Collectors.toList()));
+            unwatched.forEach(factService::removeFact);
+        }
 
-                retrievedIssues.put(kiIssue.getUid(), kiIssue);
+        long elapsedTime = System.nanoTime() - startTime;
+        log.info("GitHub refresh finished ({} ms)", (float)elapsedTime / 1000000);
+
+        final Stats stats = new Stats();
+        stats.add(SingleStat.GITHUB_REFRESH_TIME).value(elapsedTime);
+        stats.add(SingleStat.GITHUB_PAGES)
+                .label("result", "modified")
+                .value((double) pagesModified.getAndSet(0));
+        stats.add(SingleStat.GITHUB_PAGES)
+                .label("result", "not_modified")
+                .value((double) pagesNotModified.getAndSet(0));
+        if (rateLimitRemaining.get() >= 0) {
+            stats.add(SingleStat.GITHUB_RATELIMIT_REMAINING).value((double) rateLimitRemaining.get());
+        }
+        statsService.merge(stats);
+
+        finished.set(true);
+    }
+
+    private GithubIssue toFact(Repo repo, Issue issue) {
+        Bug bug = new Bug("github-" + issue.getId().toString());
+        GithubIssue kiIssue = GithubIssue.builder()
+                .id(issue.getNumber())
+                .uid(bug.getId())
+                .bug(bug)
+                .title(issue.getTitle())
+                .description(issue.getBody())
+                .githubUrl(issue.getHtml_url())
+                .repo(repo.getRepo())
+                .repoOwner(repo.getOwner())
+                .build();
+
+        if (issue.getAssignees() != null) {
+            for (User u: issue.getAssignees()) {
+                userMatchingService.getByGithub(u.getLogin()).ifPresent(kiIssue.getAssignedTo()::add);
             }
+        }
 
-            // Update fact database
-            factService.addOrUpdateFacts(retrievedIssues.values());
+        if (issue.getAssignee() != null) {
+            userMatchingService.getByGithub(issue.getAssignee().getLogin()).ifPresent(kiIssue.getAssignedTo()::add);
+        }
 
-            // Forget about bugs that were assigned out of scope
-            Collection<GithubIssue> issuesToRemove = ruleGlobalsService.getGithubIssues();
-            issuesToRemove = issuesToRemove.stream()
-                    .filter(b -> !retrievedIssues.containsKey(b.getUid()))
-                    .collect(Collectors.toList());
+        return kiIssue;
+    }
 
-            log.info("Forgetting about issues: {}", issuesToRemove.stream()
-                    .map(GithubIssue::getId).collect(Collectors.toList()));
+    /**
+     * Reconcile the facts of a single owner/repo partition with a full listing
+     * of its open issues.
+     */
+    void syncPartition(Repo repo, Map<String, GithubIssue> retrievedIssues) {
+        syncPartition(repo, retrievedIssues, i -> !retrievedIssues.containsKey(i.getUid()));
+    }
 
-            issuesToRemove.stream()
-                    .forEach(factService::removeFact);
+    /**
+     * Reconcile the facts of a single owner/repo partition. Issues of other
+     * repositories are never touched and unchanged issues produce no fact operation.
+     *
+     * @param forget selects the known issues of the partition that should be removed
+     */
+    void syncPartition(Repo repo, Map<String, GithubIssue> retrievedIssues, Predicate<GithubIssue> forget) {
+        Map<String, GithubIssue> known = ruleGlobalsService.getGithubIssues().stream()
+                .filter(i -> repo.getOwner().equals(i.getRepoOwner()) && repo.getRepo().equals(i.getRepo()))
+                .collect(Collectors.toMap(GithubIssue::getUid, i -> i));
+
+        List<GithubIssue> changed = retrievedIssues.values().stream()
+                .filter(i -> !i.sameContent(known.get(i.getUid())))
+                .collect(Collectors.toList());
+
+        // Forget about bugs that were closed or assigned out of scope
+        List<GithubIssue> issuesToRemove = known.values().stream()
+                .filter(forget)
+                .collect(Collectors.toList());
+
+        log.info("GitHub {}/{}: {} changed, {} unchanged, forgetting about issues: {}",
+                repo.getOwner(), repo.getRepo(), changed.size(),
+                retrievedIssues.size() - changed.size(),
+                issuesToRemove.stream().map(GithubIssue::getId).collect(Collectors.toList()));
+
+        if (!changed.isEmpty()) {
+            factService.addOrUpdateFacts(changed);
         }
+        issuesToRemove.forEach(factService::removeFact);
+    }
 
-        finished.set(true);
+    /**
+     * Walk all pages of the issue list following the Link header. Pages GitHub
+     * reports as not modified are served from the local cache.
+     *
+     * The returned future fails when any page could not be retrieved.
+     */
+    CompletableFuture<List<Issue>> fetchIssues(Repo repo, String userAgent, HttpUrl url, boolean snapshot) {
+        final Map<Repo, Map<String, CachedPage>> pageCache = snapshot ? snapshotPages : deltaPages;
+        final Map<String, CachedPage> cache = pageCache.getOrDefault(repo, Collections.emptyMap());
+        final Map<String, CachedPage> visited = new HashMap<>();
+        final List<Issue> issues = new ArrayList<>();
+
+        return fetchPages(repo, userAgent, url, cache, visited, issues)
+                .thenApply(v -> {
+                    // Drop pages that are no longer part of this listing
+                    pageCache.put(repo, visited);
+                    return issues;
+                });
+    }
+
+    private CompletableFuture<Void> fetchPages(Repo repo, String userAgent, HttpUrl url,
+            Map<String, CachedPage> cache, Map<String, CachedPage> visited, List<Issue> issues) {
+        final String key = url.toString();
+        final CachedPage cached = cache.get(key);
+
+        Request.Builder request = new Request.Builder()
+                .url(url)
+                .header("User-Agent", userAgent)
+                .header("Accept", GITHUB_API_VERSION);
+        if (cached != null) {
+            request.header("If-None-Match", cached.getEtag());
+        }
+
+        return enqueue(request.build())
+                .thenCompose(response -> {
+                    final CachedPage page;
+                    try (Response r = response) {
+                        page = readPage(repo, r, cached);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+
+                    if (page.getEtag() != null) {
+                        visited.put(key, page);
+                    }
+                    issues.addAll(page.getIssues());
+
+                    if (page.getNext() == null || visited.containsKey(page.getNext())) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return fetchPages(repo, userAgent, HttpUrl.parse(page.getNext()), cache, visited, issues);
+                });
+    }
+
+    private CachedPage readPage(Repo repo, Response response, CachedPage cached) throws IOException {
+        updateRateLimit(response);
+
+        if (response.code() == HTTP_NOT_MODIFIED && cached != null) {
+            pagesNotModified.incrementAndGet();
+            return cached;
+        } else if (response.isSuccessful()) {
+            pagesModified.incrementAndGet();
+            List<Issue> pageIssues = gson.fromJson(response.body().string(),
+                    new TypeToken<List<Issue>>(){}.getType());
+            return new CachedPage(response.header("ETag"), pageIssues, nextLink(response.header("Link")));
+        } else {
+            throw new IOException("Could not retrieve the list of issues from " + repo + ": " + response);
+        }
+    }
+
+    private CompletableFuture<Response> enqueue(Request request) {
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+        httpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                future.complete(response);
+            }
+        });
+        return future;
+    }
+
+    private void updateRateLimit(Response response) {
+        final String remaining = response.header("X-RateLimit-Remaining");
+        if (remaining == null) {
+            return;
+        }
+
+        try {
+            rateLimitRemaining.set(Long.parseLong(remaining.trim()));
+        } catch (NumberFormatException e) {
+            log.debug("Invalid GitHub rate limit header: {}", remaining);
+        }
+    }
+
+    /**
+     * Extract the rel="next" target from a GitHub Link header.
+     */
+    static String nextLink(String linkHeader) {
+        if (linkHeader == null) {
+            return null;
+        }
+
+        for (String link: linkHeader.split(",")) {
+            String[] parts = link.split(";");
+            String target = parts[0].trim();
+            if (!target.startsWith("<") || !target.endsWith(">")) {
+                continue;
+            }
+
+            for (int i = 1; i < parts.length; i++) {
+                if (parts[i].trim().replace(" ", "").equals("rel=\"next\"")) {
+                    return target.substring(1, target.length() - 1);
+                }
+            }
+        }
+
+        return null;
     }
 }
@@ -28,6 +28,12 @@ public class RefreshRulesJob implements Runnable {
     @Inject
     StatsService statsService;
 
+    @Inject
+    BugzillaActions bugzillaActions;
+
+    @Inject
+    TrelloActions trelloActions;
+
     @Override
     public void run() {
         if (!BugzillaRefreshJob.getFinished().get()
@@ -51,6 +57,12 @@ public class RefreshRulesJob implements Runnable {
 
         kSession.fireAllRules();
 
+        // Write the bugzilla changes requested by the rules in the background
+        bugzillaActions.flush();
+
+        // Write the card changes, the facts are updated once per card
+        trelloActions.flush();
+
         long elapsedTime = System.nanoTime() - startTime;
         stats.add(SingleStat.TRIGGER_TIME)
                 .value((float) elapsedTime);
@@ -1,45 +1,68 @@
 package org.marsik.bugautomation.jobs;
 
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.validation.ConstraintViolation;
 import javax.validation.Validation;
 import javax.validation.Validator;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.NotFoundException;
 
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
+import com.google.common.collect.Iterables;
+import lombok.Value;
 import org.marsik.bugautomation.facts.Bug;
 import org.marsik.bugautomation.facts.TrelloBoard;
 import org.marsik.bugautomation.facts.TrelloCard;
 import org.marsik.bugautomation.facts.TrelloLabel;
 import org.marsik.bugautomation.facts.User;
+import org.marsik.bugautomation.hystrix.ConnectorUnavailableException;
 import org.marsik.bugautomation.services.BugMatchingService;
 import org.marsik.bugautomation.services.ConfigurationService;
 import org.marsik.bugautomation.services.FactService;
 import org.marsik.bugautomation.services.RuleGlobalsService;
 import org.marsik.bugautomation.services.StatsService;
 import org.marsik.bugautomation.services.TrelloActionsImpl;
+import org.marsik.bugautomation.services.TrelloBoardCache;
+import org.marsik.bugautomation.services.TrelloRefetchService;
 import org.marsik.bugautomation.services.UserMatchingService;
 import org.marsik.bugautomation.stats.SingleStat;
 import org.marsik.bugautomation.stats.Stats;
+import org.marsik.bugautomation.trello.Action;
 import org.marsik.bugautomation.trello.Board;
 import org.marsik.bugautomation.trello.Card;
+import org.marsik.bugautomation.trello.CardDescription;
+import org.marsik.bugautomation.trello.ResponseSizeCounter;
+import org.marsik.bugautomation.trello.TrelloBatch;
 import org.marsik.bugautomation.trello.TrelloClient;
 import org.marsik.bugautomation.trello.TrelloClientBuilder;
 import org.marsik.bugautomation.trello.TrelloList;
+import org.marsik.bugautomation.trello.Webhook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +71,15 @@ public class TrelloRefreshJob implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(TrelloRefreshJob.class);
     private static final AtomicBoolean finished = new AtomicBoolean(false);
 
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int DEFAULT_RECONCILE_INTERVAL = 3600;
+    private static final int DEFAULT_WEBHOOK_POLL_INTERVAL = 1800;
+    private static final int DEFAULT_CLOSED_WINDOW = 30;
+    private static final int ACTIONS_LIMIT = 1000;
+
+    // The card attributes the job uses
+    private static final String CARD_FIELDS = "name,desc,idList,idBoard,pos,closed,due,labels,idMembers,dateLastActivity";
+
     @Inject
     FactService factService;
 
@@ -69,12 +101,31 @@ public class TrelloRefreshJob implements Runnable {
     @Inject
     StatsService statsService;
 
+    @Inject
+    TrelloBoardCache trelloBoardCache;
+
+    @Inject
+    TrelloRefetchService trelloRefetchService;
+
     private final Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
 
-    private static final Pattern CUSTOM_FIELDS_GROUP_RE = Pattern.compile("\\{\\{ *(([a-zA-Z0-9]+[:=][a-zA-Z0-9@.:/_=?-]*) *)* *\\}\\}");
-    private static final Pattern CUSTOM_FIELDS_RE = Pattern.compile("([a-zA-Z0-9]+)[=:]([a-zA-Z0-9@.:/_=?-]*)");
+    private final Map<String, String> lastCardActivity = new ConcurrentHashMap<>();
+    private final Map<String, BoardState> boardStates = new ConcurrentHashMap<>();
+    private final Map<String, Object> boardLocks = new ConcurrentHashMap<>();
+
+    // Boards with a registered webhook
+    private final Set<String> webhookBoards = ConcurrentHashMap.newKeySet();
+    private volatile long lastPoll;
 
-    private Map<String, String> lastCardActivity = new HashMap<>();
+    // Board facts written and left alone since the last report
+    private final AtomicLong boardUpdates = new AtomicLong();
+    private final AtomicLong boardUpdatesSuppressed = new AtomicLong();
+
+    private final ExecutorService webhookExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "trello-webhook");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     @Override
     public void run() {
@@ -85,199 +136,746 @@ public class TrelloRefreshJob implements Runnable {
             return;
         }
 
+        List<String> boards = configurationService.getMonitoredBoards();
+
+        // Webhooks deliver the changes, poll only to reconcile now and then
+        final long pollInterval = TimeUnit.SECONDS.toMillis(configurationService.getCachedInt(
+                ConfigurationService.TRELLO_WEBHOOK_POLL_INTERVAL, DEFAULT_WEBHOOK_POLL_INTERVAL));
+        if (!markRefetchedCards()
+                && webhooksEnabled()
+                && webhookBoards.containsAll(boards)
+                && System.currentTimeMillis() - lastPoll < pollInterval) {
+            logger.debug("Trello webhooks active, skipping refresh");
+            return;
+        }
+        lastPoll = System.currentTimeMillis();
+
+        try {
+            refresh(builder, boards);
+        } finally {
+            // Release the connection pool of this refresh
+            builder.close();
+        }
+    }
+
+    private void refresh(TrelloClientBuilder builder, List<String> boards) {
         long startTime = System.nanoTime();
 
-        TrelloClient trello = builder.build();
+        final int concurrency = Math.max(1, configurationService.getCachedInt(
+                ConfigurationService.TRELLO_CONCURRENCY, DEFAULT_CONCURRENCY));
+        final ResponseSizeCounter responseSize = new ResponseSizeCounter();
+        TrelloClient trello = builder.connectionPoolSize(concurrency)
+                .responseSizeCounter(responseSize)
+                .build();
 
-        Map<String, User> users = new HashMap<>();
+        if (webhooksEnabled()) {
+            checkWebhooks(trello);
+        }
 
-        List<String> boards = configurationService.getMonitoredBoards();
+        // Read the action feeds (or whole boards) of all boards using batch calls
+        final Map<String, BoardFetch> fetches = prefetch(trello, boards);
 
-        // Process boards
-        Set<String> visitedCards = new HashSet<>();
+        // Process boards, several at the same time
+        Set<String> visitedCards = ConcurrentHashMap.newKeySet();
 
-        for (String boardId: boards) {
-            logger.info("Refreshing trello board {}", boardId);
-            Board trBoard = trello.getBoardWithData(boardId, "all", "all", "all");
-            final TrelloBoard kiBoard = TrelloBoard.builder()
-                    .name(trBoard.getName())
-                    .id(trBoard.getId())
-                    .members(new HashSet<>())
-                    .build();
-            logger.debug("Found board {}", kiBoard.getName());
-            factService.addOrUpdateFact(kiBoard);
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(boards.size(), concurrency)));
+        final Map<String, Future<BoardRefresh>> pending = new LinkedHashMap<>();
+        final List<BoardRefresh> refreshed = new ArrayList<>();
 
-            Map<String, String> idListToStatus = new HashMap<>();
-            Map<String, TrelloList> idToListMap = new HashMap<>();
+        try {
+            for (String boardId: boards) {
+                pending.put(boardId, executor.submit(() -> {
+                    synchronized (boardLock(boardId)) {
+                        return refreshBoard(trello, boardId, visitedCards, fetches.get(boardId));
+                    }
+                }));
+            }
 
-            // Load lists
-            for (TrelloList list: trBoard.getLists()) {
-                idToListMap.put(list.getId(), list);
+            for (Map.Entry<String, Future<BoardRefresh>> entry: pending.entrySet()) {
+                try {
+                    refreshed.add(entry.getValue().get());
+                } catch (ExecutionException ex) {
+                    // Keep the cards we already know about
+                    if (ex.getCause() instanceof ConnectorUnavailableException) {
+                        logger.warn("Trello unavailable, keeping the last known cards of board {}: {}",
+                                entry.getKey(), ex.getCause().getMessage());
+                    } else {
+                        logger.error("Could not refresh trello board {}", entry.getKey(), ex.getCause());
+                    }
+                    ruleGlobalsService.getTrelloCards().stream()
+                            .filter(c -> c.getBoard() != null && entry.getKey().equals(c.getBoard().getId()))
+                            .forEach(c -> visitedCards.add(c.getId()));
+                }
             }
+        } catch (InterruptedException ex) {
+            logger.warn("Trello refresh interrupted");
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
 
-            // Load users
-            trBoard.getMembers().forEach(user -> {
-                        userMatchingService.getByTrello(user.getId()).ifPresent(u -> {
-                            logger.debug("Found user {} ({})", user.getId(), user.getFullName());
-                            users.put(user.getId(), u);
-                            kiBoard.getMembers().add(u);
-                        });
-                    });
+        // Forget about removed cards
+        ruleGlobalsService.getTrelloCards().stream()
+                .filter(c -> !visitedCards.contains(c.getId()))
+                .peek(c -> logger.info("Forgetting about card: {} ({})", c.getTitle(), c.getId()))
+                .peek(c -> lastCardActivity.remove(c.getId()))
+                .forEach(factService::removeFact);
+
+        long elapsedTime = System.nanoTime() - startTime;
+
+        logger.info("Trello refresh finished ({} ms)", (float)elapsedTime / 1000000);
+
+        final Stats stats = new Stats();
+        stats.add(SingleStat.TRELLO_REFRESH_TIME).value(elapsedTime);
+        stats.add(SingleStat.TRELLO_RESPONSE_BYTES).value((double) responseSize.getBytes());
+        stats.add(SingleStat.TRELLO_BOARD_UPDATES)
+                .label("result", "updated")
+                .value((double) boardUpdates.getAndSet(0));
+        stats.add(SingleStat.TRELLO_BOARD_UPDATES)
+                .label("result", "suppressed")
+                .value((double) boardUpdatesSuppressed.getAndSet(0));
+        boardStates.forEach((boardId, state) -> {
+            stats.add(SingleStat.TRELLO_BOARD_CARDS)
+                    .label("board", boardId)
+                    .label("state", "open")
+                    .value(state.openCards);
+            stats.add(SingleStat.TRELLO_BOARD_CARDS)
+                    .label("board", boardId)
+                    .label("state", "closed")
+                    .value(state.closedCards);
+        });
+        for (BoardRefresh board: refreshed) {
+            final String mode = board.isSnapshot() ? "snapshot" : "delta";
+            stats.add(SingleStat.TRELLO_BOARD_FETCH_TIME)
+                    .label("board", board.getBoardId())
+                    .label("mode", mode)
+                    .value(board.getFetchTime());
+            stats.add(SingleStat.TRELLO_BOARD_PROCESS_TIME)
+                    .label("board", board.getBoardId())
+                    .label("mode", mode)
+                    .value(board.getProcessTime());
+        }
+        statsService.merge(stats);
+
+        finished.set(true);
+    }
+
+    @Value
+    private static class BoardRefresh {
+        String boardId;
+        boolean snapshot;
+        long fetchTime;
+        long processTime;
+    }
+
+    /**
+     * What we know about a board from the last full snapshot,
+     * updated by the following delta refreshes.
+     */
+    private static class BoardState {
+        TrelloBoard kiBoard;
+        final Map<String, TrelloList> lists = new HashMap<>();
+        final Map<String, User> members = new HashMap<>();
+        final Set<String> cards = new HashSet<>();
+
+        // The newest action already reflected in the state
+        String lastActionId;
+        long lastSnapshot;
+
+        // Set when a delta refresh found something it can't handle
+        boolean stale;
+
+        // Cards downloaded by the last snapshot
+        int openCards;
+        int closedCards;
+    }
+
+    /**
+     * Requests prepared for a board by {@link #prefetch(TrelloClient, List)}.
+     */
+    private static class BoardFetch {
+        // The action the delta request starts from
+        String since;
+        TrelloBatch.Request<List<Action>> actions;
+        // Only present when the board needs a snapshot
+        TrelloBatch.Request<Board> board;
+        TrelloBatch.Request<List<Action>> closedActions;
+        Map<String, TrelloBatch.Request<Card>> closedCards;
+    }
 
-            // Process cards
-            for (Card trCard: trBoard.getCards()) {
-                visitedCards.add(trCard.getId());
+    private boolean needsSnapshot(BoardState state) {
+        final long reconcileInterval = TimeUnit.SECONDS.toMillis(configurationService.getCachedInt(
+                ConfigurationService.TRELLO_RECONCILE_INTERVAL, DEFAULT_RECONCILE_INTERVAL));
 
-                // Skip processing cards with no update
-                if (Objects.equals(trCard.getDateLastActivity(), lastCardActivity.get(trCard.getId()))) {
-                    continue;
+        return state == null
+                || state.stale
+                || state.lastActionId == null
+                || System.currentTimeMillis() - state.lastSnapshot >= reconcileInterval;
+    }
+
+    private static String actionsUrl(String boardId, String since, int limit) {
+        return "/boards/" + boardId + "/actions?limit=" + limit + (since != null ? "&since=" + since : "");
+    }
+
+    private static String cardUrl(String cardId) {
+        return "/cards/" + cardId + "?fields=" + CARD_FIELDS;
+    }
+
+    /**
+     * Queue the requests of a board snapshot: the newest action, the board with
+     * open cards and the cards archived within the retention window.
+     */
+    private void snapshotRequests(TrelloBatch batch, String boardId, BoardFetch fetch) {
+        final int closedWindow = configurationService.getCachedInt(
+                ConfigurationService.TRELLO_CLOSED_WINDOW, DEFAULT_CLOSED_WINDOW);
+
+        fetch.actions = batch.get(actionsUrl(boardId, null, 1), TrelloBatch.ACTIONS);
+        fetch.board = batch.get("/boards/" + boardId + "?fields=name"
+                + "&lists=all&list_fields=name,closed,idBoard"
+                + "&cards=open&card_fields=" + CARD_FIELDS
+                + "&members=all&member_fields=fullName,username"
+                + "&labels=all&label_fields=name,color", TrelloBatch.BOARD);
+        fetch.closedActions = batch.get("/boards/" + boardId + "/actions?filter=updateCard:closed&fields=data"
+                + "&limit=" + ACTIONS_LIMIT
+                + "&since=" + Instant.now().minus(closedWindow, ChronoUnit.DAYS), TrelloBatch.ACTIONS);
+    }
+
+    /**
+     * Queue the reads of the cards archived within the retention window,
+     * once the archive actions are known.
+     */
+    private static void closedCardRequests(TrelloBatch batch, BoardFetch fetch) {
+        final List<Action> closedActions;
+        try {
+            closedActions = fetch.closedActions.get();
+        } catch (RuntimeException ex) {
+            // Reported by the snapshot
+            return;
+        }
+
+        fetch.closedCards = new LinkedHashMap<>();
+        closedActions.stream()
+                .filter(a -> a.getData() != null && a.getData().getCard() != null)
+                .map(a -> a.getData().getCard().getId())
+                .distinct()
+                .forEach(cardId -> fetch.closedCards.put(cardId, batch.get(cardUrl(cardId), TrelloBatch.CARD)));
+    }
+
+    private Map<String, BoardFetch> prefetch(TrelloClient trello, List<String> boards) {
+        final TrelloBatch batch = new TrelloBatch(trello);
+        final Map<String, BoardFetch> fetches = new HashMap<>();
+
+        for (String boardId: boards) {
+            final BoardState state = boardStates.get(boardId);
+            final BoardFetch fetch = new BoardFetch();
+            if (needsSnapshot(state)) {
+                snapshotRequests(batch, boardId, fetch);
+            } else {
+                fetch.since = state.lastActionId;
+                fetch.actions = batch.get(actionsUrl(boardId, state.lastActionId, ACTIONS_LIMIT), TrelloBatch.ACTIONS);
+            }
+            fetches.put(boardId, fetch);
+        }
+
+        // Failures are reported when the board uses the response
+        batch.execute();
+
+        final TrelloBatch closedBatch = new TrelloBatch(trello);
+        fetches.values().stream()
+                .filter(f -> f.closedActions != null)
+                .forEach(f -> closedCardRequests(closedBatch, f));
+        closedBatch.execute();
+
+        return fetches;
+    }
+
+    private BoardRefresh refreshBoard(TrelloClient trello, String boardId, Set<String> visitedCards, BoardFetch fetch) {
+        final BoardState state = boardStates.get(boardId);
+
+        if (needsSnapshot(state)) {
+            return snapshotBoard(trello, boardId, visitedCards, fetch != null && fetch.board != null ? fetch : null);
+        }
+
+        logger.info("Refreshing trello board {} since action {}", boardId, state.lastActionId);
+        final long fetchStart = System.nanoTime();
+
+        // A webhook might have moved the board forward since the prefetch
+        final List<Action> actions = fetch != null && fetch.board == null && state.lastActionId.equals(fetch.since)
+                ? fetch.actions.get()
+                : trello.getBoardActions(boardId, state.lastActionId, ACTIONS_LIMIT);
+
+        // Changes to lists, labels or members are not tied to a card, a full
+        // page might be missing older actions
+        if (actions.size() >= ACTIONS_LIMIT
+                || actions.stream().anyMatch(a -> a.getData() == null || a.getData().getCard() == null)) {
+            return snapshotBoard(trello, boardId, visitedCards, null);
+        }
+
+        final Set<String> touched = actions.stream()
+                .map(a -> a.getData().getCard().getId())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+
+        final TrelloBatch cardBatch = new TrelloBatch(trello);
+        final Map<String, TrelloBatch.Request<Card>> cardRequests = new LinkedHashMap<>();
+        touched.forEach(cardId -> cardRequests.put(cardId, cardBatch.get(cardUrl(cardId), TrelloBatch.CARD)));
+        cardBatch.execute();
+
+        final List<Card> cards = new ArrayList<>();
+        for (String cardId: touched) {
+            try {
+                Card trCard = cardRequests.get(cardId).get();
+                if (boardId.equals(trCard.getIdBoard())) {
+                    cards.add(trCard);
                 } else {
-                    lastCardActivity.put(trCard.getId(), trCard.getDateLastActivity());
+                    // Moved to a different board
+                    state.cards.remove(cardId);
                 }
+            } catch (NotFoundException ex) {
+                // Deleted
+                state.cards.remove(cardId);
+            }
+        }
 
-                String status = idListToStatus.get(trCard.getIdList());
-                if (status == null) {
-                    TrelloList list = idToListMap.get(trCard.getIdList());
-                    if (list == null) {
-                        // Ignore cards on non-existing (archived) lists
-                        continue;
-                    }
+        final long processStart = System.nanoTime();
+        logger.info("Trello board {}: {} actions touched {} cards", boardId, actions.size(), touched.size());
+
+        for (Card trCard: cards) {
+            state.cards.add(trCard.getId());
+            if (!state.lists.containsKey(trCard.getIdList())) {
+                // Moved to a list we do not know yet, let the next snapshot process it
+                state.stale = true;
+                trelloBoardCache.invalidate(state.kiBoard.getId());
+                lastCardActivity.remove(trCard.getId());
+                continue;
+            }
+            processCard(state, trCard);
+        }
 
-                    idListToStatus.put(list.getId(), list.getName());
-                    status = list.getName();
-                }
+        if (!actions.isEmpty()) {
+            state.lastActionId = actions.get(0).getId();
+        }
 
-                TrelloCard kiCard = TrelloCard.builder()
-                        .id(trCard.getId())
-                        .title(trCard.getName())
-                        .description(trCard.getDesc())
-                        .board(kiBoard)
-                        .pos(trCard.getPos())
-                        .status(status.toLowerCase().replace(" ", ""))
-                        .assignedTo(new HashSet<>())
-                        .labels(new HashSet<>())
-                        .fields(new HashMap<>())
-                        .blocks(new HashSet<>())
-                        .closed(Optional.ofNullable(trCard.getClosed()).orElse(false))
-                        .build();
-
-                logger.debug("Found card {} at {}#{}", kiCard.getTitle(), kiCard.getStatus(), kiCard.getPos());
-
-                // Process custom flags from description
-                Map<String,String> fields = getCustomFields(trCard.getDesc());
-                kiCard.getFields().putAll(fields);
-
-                // Ignore when ignore flag is present!
-                if (fields.containsKey("ignore")) {
-                    continue;
-                }
+        visitedCards.addAll(state.cards);
+        return new BoardRefresh(boardId, false, processStart - fetchStart, System.nanoTime() - processStart);
+    }
 
-                if (trCard.getDue() != null) {
-                    kiCard.setDueDate(Instant.parse(trCard.getDue()));
-                }
+    private BoardRefresh snapshotBoard(TrelloClient trello, String boardId, Set<String> visitedCards,
+            BoardFetch fetch) {
+        logger.info("Refreshing trello board {}", boardId);
+        final long fetchStart = System.nanoTime();
 
-                // Add label facts
-                trCard.getLabels().stream()
-                        .map(l -> new TrelloLabel(kiBoard, l.getId(), l.getColor().toLowerCase(), l.getName().toLowerCase()))
-                        .forEach(kiCard.getLabels()::add);
-
-                // Add assignment facts
-                trCard.getIdMembers().stream()
-                        .map(users::get)
-                        .filter(u -> u != null)
-                        .distinct()
-                        .forEach(u -> {
-                            logger.debug("Card {} assigned to {}", kiCard.getTitle(), u.getName());
-                            kiCard.getAssignedTo().add(u);
-                        });
-
-                // Find bugs
-                Optional<Bug> bug = bugMatchingService.identifyBug(trCard.getName());
-                if (!bug.isPresent()) {
-                    // Description lookup has to ignore the field sections
-                    bug = bugMatchingService.identifyBug(kiCard.getCleanDesc());
-                }
+        if (fetch == null) {
+            fetch = new BoardFetch();
+            final TrelloBatch batch = new TrelloBatch(trello);
+            snapshotRequests(batch, boardId, fetch);
+            batch.execute();
 
-                if (bug.isPresent()) {
-                    logger.debug("Card {} is tied to virtual bug {}", kiCard.getTitle(), bug.get().getId());
-                    kiCard.setBug(bug.get());
-                }
+            final TrelloBatch closedBatch = new TrelloBatch(trello);
+            closedCardRequests(closedBatch, fetch);
+            closedBatch.execute();
+        }
 
-                // Use score if provided
-                if (fields.containsKey("score")) {
-                    try {
-                        kiCard.setScore(Integer.valueOf(fields.get("score")));
-                    } catch (NumberFormatException ex) {
-                        logger.warn("Card {} contains invalid score value {}", kiCard, fields.get("score"));
-                    }
+        // The newest action was requested first, anything newer will be
+        // replayed by the next delta refresh
+        final List<Action> latest = fetch.actions.get();
+        final Board trBoard = fetch.board.get();
+        fetch.closedActions.get();
+
+        final List<Card> closedCards = new ArrayList<>();
+        for (TrelloBatch.Request<Card> request: fetch.closedCards.values()) {
+            try {
+                final Card trCard = request.get();
+                // Reopened cards are part of the board data already
+                if (Boolean.TRUE.equals(trCard.getClosed()) && trBoard.getId().equals(trCard.getIdBoard())) {
+                    closedCards.add(trCard);
                 }
+            } catch (NotFoundException ex) {
+                // Deleted since
+            }
+        }
+        final long processStart = System.nanoTime();
 
-                // Add all blocking bugs
-                if (fields.containsKey("blocks")) {
-                    String[] blocksList = fields.get("blocks").split(",");
-                    for (String blocks: blocksList) {
-                        kiCard.getBlocks().add(new Bug(blocks));
-                    }
-                }
+        final BoardState state = new BoardState();
+        state.lastActionId = latest.isEmpty() ? null : latest.get(0).getId();
+        state.lastSnapshot = System.currentTimeMillis();
+        trelloBoardCache.update(trBoard);
+
+        // Load lists
+        for (TrelloList list: trBoard.getLists()) {
+            state.lists.put(list.getId(), list);
+        }
+
+        // Load users
+        trBoard.getMembers().forEach(user -> {
+                    userMatchingService.getByTrello(user.getId()).ifPresent(u -> {
+                        logger.debug("Found user {} ({})", user.getId(), user.getFullName());
+                        state.members.put(user.getId(), u);
+                    });
+                });
 
-                if (fields.containsKey("bug")) {
-                    String[] blocksList = fields.get("bug").split(",");
-                    for (String blocks: blocksList) {
-                        bug = bugMatchingService.identifyBug(blocks);
-                        if (bug.isPresent()) {
-                            kiCard.getBlocks().add(bug.get());
-                        } else {
-                            logger.warn("Card {} contains invalid blocking bug id {}", kiCard, blocks);
-                        }
+        state.kiBoard = updateBoard(boardStates.get(boardId), trBoard, new HashSet<>(state.members.values()));
+
+        // Process open cards and the recently archived ones
+        for (Card trCard: Iterables.concat(trBoard.getCards(), closedCards)) {
+            visitedCards.add(trCard.getId());
+            state.cards.add(trCard.getId());
+            processCard(state, trCard);
+        }
+        state.openCards = trBoard.getCards().size();
+        state.closedCards = closedCards.size();
+
+        boardStates.put(boardId, state);
+        registerWebhook(trello, boardId, state.kiBoard.getId());
+        return new BoardRefresh(boardId, true, processStart - fetchStart, System.nanoTime() - processStart);
+    }
+
+    /**
+     * Reuse the board fact of the previous snapshot, the rules joining cards
+     * on their board only need to run again when the board really changed.
+     */
+    private TrelloBoard updateBoard(BoardState previous, Board trBoard, Set<User> members) {
+        final TrelloBoard kiBoard = previous != null ? previous.kiBoard : null;
+
+        if (kiBoard == null || !kiBoard.getId().equals(trBoard.getId())) {
+            final TrelloBoard created = TrelloBoard.builder()
+                    .name(trBoard.getName())
+                    .id(trBoard.getId())
+                    .members(members)
+                    .build();
+            logger.debug("Found board {}", created.getName());
+            factService.addOrUpdateFact(created);
+            boardUpdates.incrementAndGet();
+            return created;
+        }
+
+        if (Objects.equals(kiBoard.getName(), trBoard.getName()) && kiBoard.getMembers().equals(members)) {
+            boardUpdatesSuppressed.incrementAndGet();
+            return kiBoard;
+        }
+
+        // Cards keep pointing to the same object
+        logger.debug("Board {} changed", trBoard.getName());
+        kiBoard.setName(trBoard.getName());
+        kiBoard.setMembers(members);
+        factService.addOrUpdateFact(kiBoard);
+        boardUpdates.incrementAndGet();
+        return kiBoard;
+    }
+
+    /**
+     * Cards whose update failed look unchanged to trello, forget their
+     * activity dates and take a snapshot of their boards.
+     *
+     * @return true when some board has to be read again
+     */
+    private boolean markRefetchedCards() {
+        boolean marked = false;
+        for (Map.Entry<String, String> card: trelloRefetchService.drain().entrySet()) {
+            lastCardActivity.remove(card.getKey());
+
+            // Monitored boards might be configured using the short id
+            for (String boardId: boardStates.keySet()) {
+                synchronized (boardLock(boardId)) {
+                    final BoardState state = boardStates.get(boardId);
+                    if (state.kiBoard != null && card.getValue().equals(state.kiBoard.getId())) {
+                        state.stale = true;
+                        marked = true;
                     }
                 }
+            }
+        }
+        return marked;
+    }
 
-                // Use target milestone if provided
-                if (fields.containsKey("target")) {
-                    kiCard.setTargetMilestone(configurationService.resolveRelease(fields.get("target")));
-                }
+    private Object boardLock(String boardId) {
+        return boardLocks.computeIfAbsent(boardId, id -> new Object());
+    }
 
-                if (fields.containsKey("targetMilestone")) {
-                    kiCard.setTargetMilestone(configurationService.resolveRelease(fields.get("targetMilestone")));
-                }
+    private boolean webhooksEnabled() {
+        return configurationService.get(ConfigurationService.TRELLO_WEBHOOK_URL).isPresent()
+                && configurationService.get(ConfigurationService.TRELLO_SECRET).isPresent();
+    }
 
-                if (fields.containsKey("targetmilestone")) {
-                    kiCard.setTargetMilestone(configurationService.resolveRelease(fields.get("targetmilestone")));
-                }
+    private void registerWebhook(TrelloClient trello, String boardId, String modelId) {
+        final Optional<String> callbackUrl = configurationService.get(ConfigurationService.TRELLO_WEBHOOK_URL);
+        if (!webhooksEnabled() || webhookBoards.contains(boardId)) {
+            return;
+        }
 
-                if (fields.containsKey("id")) {
-                    kiCard.setBug(new Bug(fields.get("id")));
-                    factService.addOrUpdateFact(kiCard.getBug());
-                }
+        Map<String, Object> webhook = new HashMap<>();
+        webhook.put("callbackURL", callbackUrl.get());
+        webhook.put("idModel", modelId);
+        webhook.put("description", "bug automation " + boardId);
+
+        try {
+            trello.createWebhook(webhook);
+            logger.info("Registered trello webhook for board {}", boardId);
+            webhookBoards.add(boardId);
+        } catch (BadRequestException ex) {
+            // Trello refuses to create the same webhook twice, but also
+            // refuses callback urls it can't reach
+            if (registeredWebhooks(trello).map(models -> models.contains(modelId)).orElse(false)) {
+                webhookBoards.add(boardId);
+            } else {
+                logger.warn("Trello refused the webhook for board {}: {}", boardId, ex.getMessage());
+            }
+        } catch (RuntimeException ex) {
+            logger.warn("Could not register trello webhook for board {}: {}", boardId, ex.getMessage());
+        }
+    }
+
+    /**
+     * Trello disables and later deletes webhooks whose callbacks keep failing.
+     * Keep polling the boards that lost their webhook, the next snapshot
+     * registers it again.
+     */
+    private void checkWebhooks(TrelloClient trello) {
+        registeredWebhooks(trello).ifPresent(models -> webhookBoards.removeIf(boardId -> {
+            final BoardState state = boardStates.get(boardId);
+            final String modelId = state != null && state.kiBoard != null ? state.kiBoard.getId() : boardId;
+            if (models.contains(modelId)) {
+                return false;
+            }
+
+            logger.warn("Trello webhook for board {} is gone", boardId);
+            return true;
+        }));
+    }
+
+    /**
+     * @return ids of the models with an active webhook calling us, empty when trello could not tell
+     */
+    private Optional<Set<String>> registeredWebhooks(TrelloClient trello) {
+        final Optional<String> token = configurationService.get(ConfigurationService.TRELLO_TOKEN);
+        final Optional<String> callbackUrl = configurationService.get(ConfigurationService.TRELLO_WEBHOOK_URL);
+        if (!token.isPresent() || !callbackUrl.isPresent()) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(trello.getWebhooks(token.get()).stream()
+                    .filter(w -> callbackUrl.get().equals(w.getCallbackURL()))
+                    .filter(w -> !Boolean.FALSE.equals(w.getActive()))
+                    .map(Webhook::getIdModel)
+                    .collect(Collectors.toSet()));
+        } catch (RuntimeException ex) {
+            logger.warn("Could not list trello webhooks: {}", ex.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Apply a change reported by a trello webhook. Card changes refresh just
+     * the card, anything else refreshes the whole board. The work is done
+     * in the background so the webhook call returns immediately.
+     *
+     * @param modelId id of the board the webhook was registered for
+     * @return completes once the change is applied
+     */
+    public Future<?> onWebhookAction(String modelId, Action action) {
+        return webhookExecutor.submit(() -> {
+            TrelloClientBuilder builder = trelloActions.getTrello();
+            if (builder == null) {
+                return;
+            }
+
+            try {
+                handleWebhookAction(builder, modelId, action);
+            } catch (RuntimeException ex) {
+                logger.error("Could not process trello webhook action {}", action.getId(), ex);
+            } finally {
+                builder.close();
+            }
+        });
+    }
+
+    private void handleWebhookAction(TrelloClientBuilder builder, String modelId, Action action) {
+        // Monitored boards might be configured using the short id
+        final String boardId = boardStates.entrySet().stream()
+                .filter(e -> e.getValue().kiBoard != null && modelId.equals(e.getValue().kiBoard.getId()))
+                .map(Map.Entry::getKey)
+                .findFirst()
+                .orElse(modelId);
+
+        if (!configurationService.getMonitoredBoards().contains(boardId)) {
+            logger.debug("Ignoring webhook action for board {}", modelId);
+            return;
+        }
+
+        final TrelloClient trello = builder.build();
+        final String cardId = action.getData() == null || action.getData().getCard() == null
+                ? null : action.getData().getCard().getId();
+
+        synchronized (boardLock(boardId)) {
+            final BoardState state = boardStates.get(boardId);
+            if (state == null || cardId == null) {
+                // Lists, labels or members changed
+                snapshotBoard(trello, boardId, new HashSet<>(), null);
+                return;
+            }
+
+            logger.info("Trello webhook {} for card {}", action.getType(), cardId);
+
+            Card trCard;
+            try {
+                trCard = trello.getCard(cardId);
+            } catch (NotFoundException ex) {
+                trCard = null;
+            }
+
+            if (trCard == null || !boardId.equals(trCard.getIdBoard()) && !modelId.equals(trCard.getIdBoard())) {
+                // Deleted or moved to a different board
+                state.cards.remove(cardId);
+                lastCardActivity.remove(cardId);
+                ruleGlobalsService.getTrelloCards().stream()
+                        .filter(c -> cardId.equals(c.getId()))
+                        .forEach(factService::removeFact);
+                return;
+            }
+
+            state.cards.add(cardId);
+            if (!state.lists.containsKey(trCard.getIdList())) {
+                snapshotBoard(trello, boardId, new HashSet<>(), null);
+                return;
+            }
+
+            processCard(state, trCard);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        webhookExecutor.shutdownNow();
+    }
+
+    private void processCard(BoardState state, Card trCard) {
+        // Skip processing cards with no update
+        if (Objects.equals(trCard.getDateLastActivity(), lastCardActivity.get(trCard.getId()))) {
+            return;
+        } else {
+            lastCardActivity.put(trCard.getId(), trCard.getDateLastActivity());
+        }
+
+        TrelloList list = state.lists.get(trCard.getIdList());
+        if (list == null) {
+            // Ignore cards on non-existing (archived) lists
+            return;
+        }
+        String status = list.getName();
+
+        TrelloCard kiCard = TrelloCard.builder()
+                .id(trCard.getId())
+                .title(trCard.getName())
+                .description(trCard.getDesc())
+                .board(state.kiBoard)
+                .pos(trCard.getPos())
+                .status(status.toLowerCase().replace(" ", ""))
+                .assignedTo(new HashSet<>())
+                .labels(new HashSet<>())
+                .fields(new HashMap<>())
+                .blocks(new HashSet<>())
+                .closed(Optional.ofNullable(trCard.getClosed()).orElse(false))
+                .build();
+
+        logger.debug("Found card {} at {}#{}", kiCard.getTitle(), kiCard.getStatus(), kiCard.getPos());
+
+        // Process custom flags from description
+        Map<String,String> fields = getCustomFields(trCard.getDesc());
+        kiCard.getFields().putAll(fields);
+
+        // Ignore when ignore flag is present!
+        if (fields.containsKey("ignore")) {
+            return;
+        }
+
+        if (trCard.getDue() != null) {
+            kiCard.setDueDate(Instant.parse(trCard.getDue()));
+        }
+
+        // Add label facts
+        trCard.getLabels().stream()
+                .map(l -> new TrelloLabel(state.kiBoard, l.getId(), l.getColor().toLowerCase(), l.getName().toLowerCase()))
+                .forEach(kiCard.getLabels()::add);
+
+        // Add assignment facts
+        trCard.getIdMembers().stream()
+                .map(state.members::get)
+                .filter(u -> u != null)
+                .distinct()
+                .forEach(u -> {
+                    logger.debug("Card {} assigned to {}", kiCard.getTitle(), u.getName());
+                    kiCard.getAssignedTo().add(u);
+                });
+
+        // Find bugs
+        Optional<Bug> bug = bugMatchingService.identifyBug(trCard.getName());
+        if (!bug.isPresent()) {
+            // Description lookup has to ignore the field sections
+            bug = bugMatchingService.identifyBug(kiCard.getCleanDesc());
+        }
+
+        if (bug.isPresent()) {
+            logger.debug("Card {} is tied to virtual bug {}", kiCard.getTitle(), bug.get().getId());
+            kiCard.setBug(bug.get());
+        }
+
+        // Use score if provided
+        if (fields.containsKey("score")) {
+            try {
+                kiCard.setScore(Integer.valueOf(fields.get("score")));
+            } catch (NumberFormatException ex) {
+                logger.warn("Card {} contains invalid score value {}", kiCard, fields.get("score"));
+            }
+        }
+
+        // Add all blocking bugs
+        if (fields.containsKey("blocks")) {
+            String[] blocksList = fields.get("blocks").split(",");
+            for (String blocks: blocksList) {
+                kiCard.getBlocks().add(new Bug(blocks));
+            }
+        }
 
-                final Set<ConstraintViolation<TrelloCard>> violations = validator.validate(kiCard);
-                if (violations.isEmpty()) {
-                    factService.addOrUpdateFact(kiCard);
+        if (fields.containsKey("bug")) {
+            String[] blocksList = fields.get("bug").split(",");
+            for (String blocks: blocksList) {
+                bug = bugMatchingService.identifyBug(blocks);
+                if (bug.isPresent()) {
+                    kiCard.getBlocks().add(bug.get());
                 } else {
-                    violations.forEach(violation -> {
-                        logger.error("Invalid trello card {}: {}", kiCard.getId(), violation.toString());
-                    });
-                    factService.removeFact(kiCard);
+                    logger.warn("Card {} contains invalid blocking bug id {}", kiCard, blocks);
                 }
             }
         }
 
-        // Forget about removed cards
-        ruleGlobalsService.getTrelloCards().stream()
-                .filter(c -> !visitedCards.contains(c.getId()))
-                .peek(c -> logger.info("Forgetting about card: {} ({})", c.getTitle(), c.getId()))
-                .peek(c -> lastCardActivity.remove(c.getId()))
-                .forEach(factService::removeFact);
+        // Use target milestone if provided
+        if (fields.containsKey("target")) {
+            kiCard.setTargetMilestone(configurationService.resolveRelease(fields.get("target")));
+        }
 
-        long elapsedTime = System.nanoTime() - startTime;
+        if (fields.containsKey("targetMilestone")) {
+            kiCard.setTargetMilestone(configurationService.resolveRelease(fields.get("targetMilestone")));
+        }
 
-        logger.info("Trello refresh finished ({} ms)", (float)elapsedTime / 1000000);
+        if (fields.containsKey("targetmilestone")) {
+            kiCard.setTargetMilestone(configurationService.resolveRelease(fields.get("targetmilestone")));
+        }
 
-        final Stats stats = new Stats();
-        stats.add(SingleStat.TRELLO_REFRESH_TIME).value(elapsedTime);
-        statsService.merge(stats);
+        if (fields.containsKey("id")) {
+            kiCard.setBug(new Bug(fields.get("id")));
+            factService.addOrUpdateFact(kiCard.getBug());
+        }
 
-        finished.set(true);
+        final Set<ConstraintViolation<TrelloCard>> violations = validator.validate(kiCard);
+        if (violations.isEmpty()) {
+            factService.addOrUpdateFact(kiCard);
+        } else {
+            violations.forEach(violation -> {
+                logger.error("Invalid trello card {}: {}", kiCard.getId(), violation.toString());
+            });
+            factService.removeFact(kiCard);
+        }
     }
 
     public static AtomicBoolean getFinished() {
@@ -285,15 +883,6 @@ public class TrelloRefreshJob implements Runnable {
     }
 
     public static Map<String, String> getCustomFields(String text) {
-        Map<String, String> values = new HashMap<>();
-        Matcher matcher = CUSTOM_FIELDS_GROUP_RE.matcher(text);
-        while (matcher.find()) {
-            Matcher fieldsMatcher = CUSTOM_FIELDS_RE.matcher(matcher.group(0));
-            while (fieldsMatcher.find()) {
-                values.put(fieldsMatcher.group(1), fieldsMatcher.group(2));
-            }
-        }
-
-        return values;
+        return CardDescription.parse(text).getFields();
     }
 }
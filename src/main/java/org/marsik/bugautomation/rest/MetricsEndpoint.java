@@ -7,16 +7,26 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import org.marsik.bugautomation.hystrix.HystrixStats;
 import org.marsik.bugautomation.services.StatsService;
+import org.marsik.bugautomation.trello.TrelloRateLimiter;
 
 @Path("/metrics")
 public class MetricsEndpoint {
     @Inject
     private StatsService statsService;
 
+    @Inject
+    private HystrixStats hystrixStats;
+
+    @Inject
+    private TrelloRateLimiter trelloRateLimiter;
+
     @GET
     @Produces(MediaType.TEXT_PLAIN)
     public Response metrics() {
+        statsService.merge(hystrixStats.collect());
+        statsService.merge(trelloRateLimiter.collect());
         return Response.ok(statsService.getStats().toPrometheusString())
                 .build();
     }
@@ -13,6 +13,7 @@ public class RestApplication extends Application {
         final HashSet<Class<?>> classes = new HashSet<>();
         classes.add(MetricsEndpoint.class);
         classes.add(InfoEndpoint.class);
+        classes.add(TrelloWebhookEndpoint.class);
         return classes;
     }
 }
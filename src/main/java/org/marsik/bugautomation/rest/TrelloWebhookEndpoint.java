@@ -0,0 +1,104 @@
+package org.marsik.bugautomation.rest;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.inject.Inject;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.HEAD;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Optional;
+
+import lombok.Data;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.marsik.bugautomation.jobs.TrelloRefreshJob;
+import org.marsik.bugautomation.services.ConfigurationService;
+import org.marsik.bugautomation.trello.Action;
+import org.marsik.bugautomation.trello.Board;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives trello webhook callbacks. Every callback is signed
+ * with the application secret, unsigned calls are rejected.
+ */
+@Path("/trello/webhook")
+public class TrelloWebhookEndpoint {
+    private static final Logger logger = LoggerFactory.getLogger(TrelloWebhookEndpoint.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Inject
+    ConfigurationService configurationService;
+
+    @Inject
+    TrelloRefreshJob trelloRefreshJob;
+
+    /**
+     * Trello checks the callback url using HEAD before it creates the webhook.
+     */
+    @HEAD
+    public Response verify() {
+        return Response.ok().build();
+    }
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response callback(@HeaderParam("X-Trello-Webhook") String signature, String body) {
+        final Optional<String> secret = configurationService.get(ConfigurationService.TRELLO_SECRET);
+        final Optional<String> callbackUrl = configurationService.get(ConfigurationService.TRELLO_WEBHOOK_URL);
+        if (!secret.isPresent() || !callbackUrl.isPresent()) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+
+        final String expected = sign(secret.get(), body + callbackUrl.get());
+        if (signature == null || !MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+                signature.getBytes(StandardCharsets.UTF_8))) {
+            logger.warn("Rejecting trello webhook with invalid signature");
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+
+        final Callback callback;
+        try {
+            callback = MAPPER.readValue(body, Callback.class);
+        } catch (IOException ex) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        if (callback.getAction() == null || callback.getModel() == null) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        trelloRefreshJob.onWebhookAction(callback.getModel().getId(), callback.getAction());
+        return Response.ok().build();
+    }
+
+    /**
+     * Compute the trello webhook signature: base64 encoded HMAC-SHA1
+     * of the request body followed by the callback url.
+     */
+    static String sign(String secret, String content) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA1"));
+            return Base64.getEncoder().encodeToString(mac.doFinal(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("HmacSHA1 not available", ex);
+        }
+    }
+
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Callback {
+        Action action;
+        Board model;
+    }
+}
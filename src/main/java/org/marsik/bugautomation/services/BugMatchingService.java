@@ -3,19 +3,24 @@ package org.marsik.bugautomation.services;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Singleton;
 import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
 import org.marsik.bugautomation.facts.Bug;
+import org.marsik.bugautomation.util.IntObjectMap;
 
 @ApplicationScoped
 public class BugMatchingService {
-    BiMap<String, WeakReference<Bug>> bzIdToBug = HashBiMap.create();
+    IntObjectMap<WeakReference<Bug>> bzIdToBug = new IntObjectMap<>();
+
+    // Ids that are not plain bugzilla numbers
+    Map<String, WeakReference<Bug>> otherIdToBug = new HashMap<>();
 
     private static final Pattern RE_RHBZ = Pattern.compile("\\[?(bug *#?|show_bug.cgi?id=|(rh)?(bz)?#?)?(?<id>[1-9][0-9]{5,6})\\]?");
 
@@ -31,24 +36,40 @@ public class BugMatchingService {
         return Optional.empty();
     }
 
-    public Bug getBugByBzId(String bugId) {
+    public synchronized Bug getBugByBzId(String bugId) {
+        final int numericId;
+        try {
+            numericId = Integer.parseInt(bugId);
+        } catch (NumberFormatException ex) {
+            WeakReference<Bug> weakBug = otherIdToBug.get(bugId);
+            Bug bug = weakBug == null ? null : weakBug.get();
+
+            if (bug == null) {
+                bug = new Bug(bugId);
+                otherIdToBug.put(bugId, new WeakReference<>(bug));
+            }
+
+            return bug;
+        }
+
+        return getBugByBzId(numericId);
+    }
+
+    public synchronized Bug getBugByBzId(int bugId) {
         WeakReference<Bug> weakBug = bzIdToBug.get(bugId);
         Bug bug = weakBug == null ? null : weakBug.get();
 
         if (bug == null) {
-            bug = new Bug(bugId);
-            weakBug = new WeakReference<>(bug);
-            bzIdToBug.put(bugId, weakBug);
+            bug = new Bug(String.valueOf(bugId));
+            bzIdToBug.put(bugId, new WeakReference<>(bug));
         }
 
         return bug;
     }
 
-    /*public String getBzBug(Bug bug) {
-        return bzIdToBug.inverse().get(bug);
-    }*/
-
-    public Set<String> getKnownBugs() {
-        return bzIdToBug.keySet();
+    public synchronized Set<String> getKnownBugs() {
+        Set<String> known = new HashSet<>(otherIdToBug.keySet());
+        bzIdToBug.forEach((id, bug) -> known.add(String.valueOf(id)));
+        return known;
     }
 }
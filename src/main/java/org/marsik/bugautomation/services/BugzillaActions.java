@@ -5,4 +5,15 @@ import org.marsik.bugautomation.facts.User;
 
 public interface BugzillaActions {
     void assignTo(BugzillaBug bug, User user);
+
+    /**
+     * Set the status (+, -, ? or X to clear) of a bug flag.
+     */
+    void setFlag(BugzillaBug bug, String flag, String status);
+
+    /**
+     * Send the changes requested since the last flush to bugzilla.
+     * The changes are written asynchronously.
+     */
+    void flush();
 }
@@ -1,15 +1,251 @@
 package org.marsik.bugautomation.services;
 
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
-import javax.inject.Singleton;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.marsik.bugautomation.bugzilla.BugzillaCallException;
+import org.marsik.bugautomation.bugzilla.BugzillaClient;
 import org.marsik.bugautomation.facts.BugzillaBug;
+import org.marsik.bugautomation.facts.BugzillaBugFlag;
 import org.marsik.bugautomation.facts.User;
+import org.marsik.bugautomation.hystrix.ConnectorUnavailableException;
+import org.marsik.bugautomation.stats.SingleStat;
+import org.marsik.bugautomation.stats.Stats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Rule actions modifying bugzilla. Changes are collected during a rule cycle,
+ * merged per bug and written by a background thread after {@link #flush()},
+ * using one Bug.update call for all bugs that receive the same change.
+ */
 @ApplicationScoped
 public class BugzillaActionsImpl implements BugzillaActions {
+    private static final Logger logger = LoggerFactory.getLogger(BugzillaActionsImpl.class);
+
+    private static final int BATCH_SIZE = 100;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY = 5000;
+
+    // Faults caused by a single bug of the batch: invalid alias, invalid
+    // bug id, access denied and no permission to edit a field of the bug.
+    // Any other fault rejects the change itself, e.g. an unknown assignee
+    // or a flag the product does not allow, and fails for every bug.
+    private static final Set<Integer> BUG_FAULTS = ImmutableSet.of(100, 101, 102, 115);
+
+    @Inject
+    BugzillaSessionService bugzillaSessionService;
+
+    @Inject
+    UserMatchingService userMatchingService;
+
+    @Inject
+    FactService factService;
+
+    @Inject
+    StatsService statsService;
+
+    @Inject
+    BugzillaRefetchService bugzillaRefetchService;
+
+    // Changes requested since the last flush, keyed by bug id
+    private final Map<String, BugChange> pending = new LinkedHashMap<>();
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "bugzilla-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class BugChange {
+        String assignedTo;
+        final Map<String, String> flags = new TreeMap<>();
+
+        Map<String, Object> toArguments() {
+            Map<String, Object> arguments = new HashMap<>();
+            if (assignedTo != null) {
+                arguments.put("assigned_to", assignedTo);
+            }
+
+            if (!flags.isEmpty()) {
+                arguments.put("flags", flags.entrySet().stream()
+                        .map(e -> {
+                            Map<String, Object> flag = new HashMap<>();
+                            flag.put("name", e.getKey());
+                            flag.put("status", e.getValue());
+                            return flag;
+                        })
+                        .collect(Collectors.toList()));
+            }
+
+            return arguments;
+        }
+    }
+
+    @Override
+    public synchronized void assignTo(BugzillaBug bug, User user) {
+        final Optional<String> email = userMatchingService.getBugzilla(user);
+        if (!email.isPresent()) {
+            logger.warn("User {} has no bugzilla account, can't assign bug {}", user, bug.getId());
+            return;
+        }
+
+        logger.info("Assigning bug {} to {}", bug.getId(), email.get());
+        pending.computeIfAbsent(bug.getId(), id -> new BugChange()).assignedTo = email.get();
+
+        bug.setAssignedTo(user);
+        factService.addOrUpdateFact(bug);
+    }
+
+    @Override
+    public synchronized void setFlag(BugzillaBug bug, String flag, String status) {
+        logger.info("Setting flag {}{} on bug {}", flag, status, bug.getId());
+        pending.computeIfAbsent(bug.getId(), id -> new BugChange()).flags.put(flag, status);
+
+        final Set<BugzillaBugFlag> flags = new HashSet<>();
+        if (bug.getFlags() != null) {
+            bug.getFlags().stream()
+                    .filter(f -> !f.getName().equals(flag))
+                    .forEach(flags::add);
+        }
+
+        if (!"X".equals(status)) {
+            flags.add(new BugzillaBugFlag(flag + status));
+        }
+
+        bug.setFlags(flags);
+        factService.addOrUpdateFact(bug);
+    }
+
     @Override
-    public void assignTo(BugzillaBug bug, User user) {
+    public void flush() {
+        final Map<String, BugChange> changes;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            changes = new LinkedHashMap<>(pending);
+            pending.clear();
+        }
+
+        // Bugs receiving the same change share a Bug.update call
+        final Map<Map<String, Object>, List<String>> groups = new LinkedHashMap<>();
+        changes.forEach((id, change) -> groups.computeIfAbsent(change.toArguments(), k -> new ArrayList<>()).add(id));
+
+        groups.forEach((arguments, ids) -> Lists.partition(ids, BATCH_SIZE).stream()
+                .map(ArrayList::new)
+                .forEach(batch -> writer.submit(() -> update(batch, arguments))));
+    }
+
+    private enum Result {
+        UPDATED,
+        // Bugzilla refused some bug of the batch, the others can still be updated
+        REFUSED,
+        // Bugzilla refused the change itself, it fails for every bug
+        REJECTED,
+        FAILED
+    }
+
+    private void update(List<String> ids, Map<String, Object> arguments) {
+        final long startTime = System.nanoTime();
+        final Stats stats = new Stats();
+
+        write(ids, arguments, stats);
+
+        stats.add(SingleStat.BUGZILLA_UPDATE_TIME).value(System.nanoTime() - startTime);
+        statsService.merge(stats);
+    }
+
+    private void write(List<String> ids, Map<String, Object> arguments, Stats stats) {
+        final Result result = attempt(ids, arguments, stats);
+
+        if (result == Result.REFUSED && ids.size() > 1) {
+            // Bug.update is all or nothing, split the batch to find
+            // the bugs bugzilla refuses and update the rest
+            final int half = ids.size() / 2;
+            write(ids.subList(0, half), arguments, stats);
+            write(ids.subList(half, ids.size()), arguments, stats);
+            return;
+        }
+
+        final String label = result == Result.UPDATED ? "success" : "failure";
+        if (result == Result.UPDATED) {
+            logger.info("Updated bugs {} with {}", ids, arguments);
+        } else {
+            // The facts already carry the change, the next refresh has to restore
+            // them from bugzilla so the rules can ask for the change again
+            logger.error("Could not update bugs {} with {}", ids, arguments);
+            bugzillaRefetchService.refetch(ids);
+        }
+
+        stats.add(SingleStat.BUGZILLA_UPDATE_BATCHES).label("result", label).value(1);
+        stats.add(SingleStat.BUGZILLA_UPDATE_BUGS).label("result", label).value(ids.size());
+    }
+
+    /**
+     * Send a single Bug.update, retrying only when bugzilla could not be reached.
+     */
+    private Result attempt(List<String> ids, Map<String, Object> arguments, Stats stats) {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            if (attempt > 1) {
+                stats.add(SingleStat.BUGZILLA_UPDATE_RETRIES).value(1);
+                try {
+                    Thread.sleep(RETRY_DELAY * (attempt - 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            final Optional<BugzillaClient> session = bugzillaSessionService.getSession();
+            if (!session.isPresent()) {
+                logger.warn("Bugzilla not configured, dropping update of bugs {}", ids);
+                return Result.FAILED;
+            }
+
+            try {
+                session.get().open();
+                if (session.get().updateBugs(ids, arguments)) {
+                    return Result.UPDATED;
+                }
+            } catch (BugzillaCallException e) {
+                // Repeating the same call will not help with a fault
+                if (e.isFault() && BUG_FAULTS.contains(e.getFaultCode())) {
+                    logger.warn("Bugzilla refused the update of bugs {} (fault {}): {}",
+                            ids, e.getFaultCode(), e.getMessage());
+                    return Result.REFUSED;
+                } else if (e.isFault()) {
+                    logger.warn("Bugzilla rejected {} for bugs {} (fault {}): {}",
+                            arguments, ids, e.getFaultCode(), e.getMessage());
+                    return Result.REJECTED;
+                }
+                logger.warn("Bugzilla update of bugs {} failed (attempt {}): {}", ids, attempt, e.getMessage());
+            } catch (ConnectorUnavailableException | IllegalArgumentException e) {
+                logger.warn("Bugzilla update of bugs {} failed (attempt {}): {}", ids, attempt, e.getMessage());
+            }
+        }
+
+        return Result.FAILED;
+    }
 
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdown();
     }
 }
@@ -0,0 +1,34 @@
+package org.marsik.bugautomation.services;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bugs whose fact no longer matches bugzilla, for example because the rules
+ * changed the fact and the Bug.update call failed afterwards. Bugzilla does
+ * not report them as changed, so the refresh job downloads them explicitly.
+ */
+@ApplicationScoped
+public class BugzillaRefetchService {
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    public void refetch(Collection<String> bugIds) {
+        pending.addAll(bugIds);
+    }
+
+    /**
+     * @return the bugs to download again, they are removed from the queue
+     */
+    public Set<String> drain() {
+        final Set<String> bugIds = new HashSet<>();
+        for (Iterator<String> it = pending.iterator(); it.hasNext();) {
+            bugIds.add(it.next());
+            it.remove();
+        }
+        return bugIds;
+    }
+}
@@ -0,0 +1,84 @@
+package org.marsik.bugautomation.services;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.net.MalformedURLException;
+import java.util.Optional;
+
+import org.marsik.bugautomation.bugzilla.AuthorizationCallback;
+import org.marsik.bugautomation.bugzilla.BugzillaClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the long-lived bugzilla session shared by the refresh job and
+ * the rule actions. The login token is reused until bugzilla rejects it.
+ */
+@ApplicationScoped
+public class BugzillaSessionService {
+    private static final Logger logger = LoggerFactory.getLogger(BugzillaSessionService.class);
+
+    private static final int DEFAULT_CONCURRENCY = 4;
+
+    @Inject
+    ConfigurationService configurationService;
+
+    private BugzillaClient session;
+    private String sessionUrl;
+    private AuthorizationCallback sessionAuth;
+
+    /**
+     * Return the session for the configured server. A new session is only
+     * created when the configured server or credentials change.
+     *
+     * @return the session or empty when bugzilla is not configured
+     */
+    public synchronized Optional<BugzillaClient> getSession() {
+        final Optional<String> bugzillaUrl = configurationService.get(ConfigurationService.BUGZILLA_URL);
+        final Optional<String> bugzillaUsername = configurationService.get(ConfigurationService.BUGZILLA_USERNAME);
+        final Optional<String> bugzillaPassword = configurationService.get(ConfigurationService.BUGZILLA_PASSWORD);
+
+        if (!bugzillaUrl.isPresent()
+                || !bugzillaUsername.isPresent()
+                || !bugzillaPassword.isPresent()) {
+            return Optional.empty();
+        }
+
+        final AuthorizationCallback authCallback =
+                new AuthorizationCallback(bugzillaUsername.get(), bugzillaPassword.get());
+
+        if (session != null
+                && sessionUrl.equals(bugzillaUrl.get())
+                && sessionAuth.equals(authCallback)) {
+            return Optional.of(session);
+        }
+
+        close();
+
+        try {
+            // One extra connection for the write-back queue
+            final int concurrency = Math.max(1, configurationService.getCachedInt(
+                    ConfigurationService.BUGZILLA_CONCURRENCY, DEFAULT_CONCURRENCY));
+
+            BugzillaClient client = new BugzillaClient(bugzillaUrl.get());
+            client.setAuthorizationCallback(authCallback);
+            client.setMaxConnections(concurrency + 1);
+            session = client;
+            sessionUrl = bugzillaUrl.get();
+            sessionAuth = authCallback;
+            return Optional.of(session);
+        } catch (MalformedURLException e) {
+            logger.error("Bugzilla url incorrect", e);
+            return Optional.empty();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+    }
+}
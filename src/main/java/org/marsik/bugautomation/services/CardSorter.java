@@ -0,0 +1,120 @@
+package org.marsik.bugautomation.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.marsik.bugautomation.facts.TrelloCard;
+
+/**
+ * Computes the card moves needed to sort a trello column. The longest run
+ * of cards that is already in the right order stays where it is, the
+ * other cards get positions in between.
+ */
+final class CardSorter {
+    // Trello spaces cards this far apart
+    static final double POS_STEP = 65536;
+
+    private CardSorter() {
+    }
+
+    /**
+     * @return new positions of the cards that have to move, in the target order
+     */
+    static Map<TrelloCard, Double> reposition(List<TrelloCard> cards, Comparator<TrelloCard> order) {
+        final List<TrelloCard> target = new ArrayList<>(cards);
+        // Stable sort, cards that compare equal keep their current order
+        target.sort(Comparator.comparing(TrelloCard::getPos));
+        target.sort(order);
+
+        final int n = target.size();
+        final double[] pos = new double[n];
+        for (int i = 0; i < n; i++) {
+            pos[i] = target.get(i).getPos();
+        }
+
+        final boolean[] keep = longestIncreasing(pos);
+        final Map<TrelloCard, Double> moves = new LinkedHashMap<>();
+
+        int i = 0;
+        while (i < n) {
+            if (keep[i]) {
+                i++;
+                continue;
+            }
+
+            // Find the run of cards between two cards that stay
+            int end = i;
+            while (end < n && !keep[end]) {
+                end++;
+            }
+
+            final double low = i > 0 ? pos[i - 1] : 0;
+            final double step = end < n
+                    ? (pos[end] - low) / (end - i + 1)
+                    : POS_STEP;
+
+            for (int j = i; j < end; j++) {
+                final double newPos = low + step * (j - i + 1);
+                if (!(newPos > low) || end < n && !(newPos < pos[end])) {
+                    // No room left between the positions, renumber everything
+                    return renumber(target);
+                }
+                moves.put(target.get(j), newPos);
+            }
+
+            i = end;
+        }
+
+        return moves;
+    }
+
+    private static Map<TrelloCard, Double> renumber(List<TrelloCard> target) {
+        final Map<TrelloCard, Double> moves = new LinkedHashMap<>();
+        for (int i = 0; i < target.size(); i++) {
+            final double newPos = POS_STEP * (i + 1);
+            if (target.get(i).getPos() != newPos) {
+                moves.put(target.get(i), newPos);
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Mark one of the longest strictly increasing subsequences (O(n log n)).
+     */
+    static boolean[] longestIncreasing(double[] values) {
+        final int n = values.length;
+        // tails[k] is the index of the smallest tail of an increasing run of length k + 1
+        final int[] tails = new int[n];
+        final int[] previous = new int[n];
+        int length = 0;
+
+        for (int i = 0; i < n; i++) {
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length) {
+                length++;
+            }
+        }
+
+        final boolean[] keep = new boolean[n];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            keep[i] = true;
+        }
+        return keep;
+    }
+}
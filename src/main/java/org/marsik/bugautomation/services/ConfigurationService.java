@@ -11,14 +11,31 @@ public interface ConfigurationService {
     String TRELLO_APP_KEY = "trello.appkey";
     String TRELLO_TOKEN = "trello.token";
     String TRELLO_BOARDS = "trello.boards";
+    String TRELLO_CONCURRENCY = "trello.concurrency";
+    String TRELLO_RECONCILE_INTERVAL = "trello.reconcile.interval";
+    String TRELLO_SECRET = "trello.secret";
+    String TRELLO_WEBHOOK_URL = "trello.webhook.url";
+    String TRELLO_WEBHOOK_POLL_INTERVAL = "trello.webhook.poll.interval";
+    String TRELLO_CLOSED_WINDOW = "trello.closed.window.days";
+    String TRELLO_RATE_LIMIT = "trello.ratelimit.rate";
+    String TRELLO_RATE_BURST = "trello.ratelimit.burst";
     String BUGZILLA_URL = "bugzilla.url";
     String BUGZILLA_OWNERS = "bugzilla.owners";
     String BUGZILLA_TEAMS = "bugzilla.teams";
     String BUGZILLA_USERNAME = "bugzilla.username";
     String BUGZILLA_PASSWORD = "bugzilla.password";
+    String BUGZILLA_CONCURRENCY = "bugzilla.concurrency";
+    String BUGZILLA_RECONCILE_INTERVAL = "bugzilla.reconcile.interval";
+    String BUGZILLA_STATE = "bugzilla.state";
 
     String GITHUB_USER_AGENT = "github.useragent";
     String GITHUB_WATCH = "github.watch";
+    String GITHUB_PER_PAGE = "github.perpage";
+    String GITHUB_CONCURRENCY = "github.concurrency";
+    String GITHUB_RECONCILE_INTERVAL = "github.reconcile.interval";
+
+    String GERRIT_QUERY = "gerrit.query";
+    String GERRIT_RECONCILE_INTERVAL = "gerrit.reconcile.interval";
 
     Optional<String> get(String key);
 
@@ -13,6 +13,7 @@ import org.kie.api.runtime.KieSession;
 import org.kie.api.runtime.rule.QueryResults;
 import org.kie.api.runtime.rule.QueryResultsRow;
 import org.marsik.bugautomation.facts.BugzillaBug;
+import org.marsik.bugautomation.facts.GerritReview;
 import org.marsik.bugautomation.facts.GithubIssue;
 import org.marsik.bugautomation.facts.TrelloCard;
 
@@ -68,4 +69,9 @@ public class RuleGlobalsService {
     public Collection<GithubIssue> getGithubIssues() {
         return (Collection<GithubIssue>) kSession.getObjects(o -> o instanceof GithubIssue);
     }
+
+    @SuppressWarnings("unchecked")
+    public Collection<GerritReview> getGerritReviews() {
+        return (Collection<GerritReview>) kSession.getObjects(o -> o instanceof GerritReview);
+    }
 }
@@ -1,6 +1,7 @@
 package org.marsik.bugautomation.services;
 
 import java.util.Collection;
+import java.util.Comparator;
 
 import org.marsik.bugautomation.facts.BugzillaBug;
 import org.marsik.bugautomation.facts.GenericIssue;
@@ -15,6 +16,11 @@ public interface TrelloActions {
 
     void switchCards(TrelloCard one, TrelloCard two);
 
+    /**
+     * Sort the visible cards of a column, moving as few cards as possible.
+     */
+    void sortColumn(TrelloBoard kiBoard, String status, Comparator<TrelloCard> order);
+
     void moveCard(TrelloCard kiCard, TrelloBoard kiBoard, String listName);
 
     void assignCard(TrelloCard card, User user);
@@ -22,4 +28,9 @@ public interface TrelloActions {
     void assignLabelToCard(TrelloCard kiCard, String labelName);
 
     void removeLabelFromCard(TrelloCard kiCard, TrelloLabel kiLabel);
+
+    /**
+     * Write the card changes requested since the last call.
+     */
+    void flush();
 }
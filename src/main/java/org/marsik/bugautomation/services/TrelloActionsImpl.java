@@ -10,9 +10,15 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.marsik.bugautomation.facts.BugzillaBug;
@@ -22,14 +28,21 @@ import org.marsik.bugautomation.facts.TrelloBoard;
 import org.marsik.bugautomation.facts.TrelloCard;
 import org.marsik.bugautomation.facts.TrelloLabel;
 import org.marsik.bugautomation.facts.User;
+import org.marsik.bugautomation.stats.SingleStat;
+import org.marsik.bugautomation.stats.Stats;
 import org.marsik.bugautomation.trello.Card;
 import org.marsik.bugautomation.trello.Label;
 import org.marsik.bugautomation.trello.TrelloClient;
 import org.marsik.bugautomation.trello.TrelloClientBuilder;
 import org.marsik.bugautomation.trello.TrelloList;
+import org.marsik.bugautomation.trello.TrelloRateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Rule actions modifying trello. Cards are created immediately, other card
+ * changes are collected during a rule cycle and written by {@link #flush()}.
+ */
 @ApplicationScoped
 public class TrelloActionsImpl implements TrelloActions {
     private static final Logger logger = LoggerFactory.getLogger(TrelloActionsImpl.class);
@@ -43,6 +56,24 @@ public class TrelloActionsImpl implements TrelloActions {
     @Inject
     UserMatchingService userMatchingService;
 
+    @Inject
+    TrelloBoardCache trelloBoardCache;
+
+    @Inject
+    RuleGlobalsService ruleGlobalsService;
+
+    @Inject
+    TrelloRateLimiter trelloRateLimiter;
+
+    @Inject
+    StatsService statsService;
+
+    @Inject
+    TrelloRefetchService trelloRefetchService;
+
+    // Card changes requested since the last flush, keyed by card id
+    private final Map<String, CardChange> pending = new LinkedHashMap<>();
+
     public TrelloClientBuilder getTrello() {
         final Optional<String> trelloAppKey = configurationService.get(ConfigurationService.TRELLO_APP_KEY);
         final Optional<String> trelloToken = configurationService.get(ConfigurationService.TRELLO_TOKEN);
@@ -51,7 +82,12 @@ public class TrelloActionsImpl implements TrelloActions {
             return null;
         }
 
-        TrelloClientBuilder builder = new TrelloClientBuilder(trelloAppKey.get(), trelloToken.get());
+        trelloRateLimiter.configure(
+                configurationService.getCachedInt(ConfigurationService.TRELLO_RATE_LIMIT, TrelloRateLimiter.DEFAULT_RATE),
+                configurationService.getCachedInt(ConfigurationService.TRELLO_RATE_BURST, TrelloRateLimiter.DEFAULT_BURST));
+
+        TrelloClientBuilder builder = new TrelloClientBuilder(trelloAppKey.get(), trelloToken.get())
+                .rateLimiter(trelloRateLimiter);
         return builder;
     }
 
@@ -63,14 +99,20 @@ public class TrelloActionsImpl implements TrelloActions {
             return;
         }
 
-        TrelloClient trello = builder.build();
+        try {
+            createCard(builder.build(), kiBoard, listName, bug, assignTo);
+        } finally {
+            builder.close();
+        }
+    }
 
+    private void createCard(TrelloClient trello, TrelloBoard kiBoard, String listName, GenericIssue bug,
+            Collection<User> assignTo) {
         String desc = bug.getUrl(configurationService).orElse("");
 
         final Optional<TrelloList> trList;
         try {
-            java.util.List<TrelloList> trLists = trello.getListByBoard(kiBoard.getId());
-            trList = trLists.stream().filter(l -> l.getName().equalsIgnoreCase(listName)).findFirst();
+            trList = trelloBoardCache.findList(trello, kiBoard.getId(), listName);
         } catch (ClientErrorException ex) {
             logger.error("Could not retrieve list to create a card for.", ex);
             return;
@@ -123,96 +165,90 @@ public class TrelloActionsImpl implements TrelloActions {
     }
 
     @Override
-    public void switchCards(TrelloCard one, TrelloCard two) {
-        TrelloClientBuilder builder = getTrello();
-        if (builder == null) {
-            logger.warn("Trello not configured, can't create card.");
+    public synchronized void switchCards(TrelloCard one, TrelloCard two) {
+        if (!two.below(one)) {
+            // An earlier action in this cycle already reordered the cards
             return;
         }
 
-        TrelloClient trello = builder.build();
-
         double pos0 = one.getPos();
         one.setPos(two.getPos());
         two.setPos(pos0);
 
         logger.info("Switching position of {} ({}) and {} ({})", one.getId(), one.getBug(), two.getId(), two.getBug());
-        try {
-            trello.updateCard(one.getId(), Collections.singletonMap("pos", one.getPos()));
-            factService.addOrUpdateFact(one);
-        } catch (NotFoundException ex) {
-            logger.warn("Card {} not found, removing from facts");
-            factService.removeFact(one);
-        }
+        change(one).pos = one.getPos();
+        change(two).pos = two.getPos();
+    }
 
-        try {
-            trello.updateCard(two.getId(), Collections.singletonMap("pos", two.getPos()));
-            factService.addOrUpdateFact(two);
-        } catch (NotFoundException ex) {
-            logger.warn("Card {} not found, removing from facts");
-            factService.removeFact(two);
+    @Override
+    public synchronized void sortColumn(TrelloBoard kiBoard, String status, Comparator<TrelloCard> order) {
+        final List<TrelloCard> cards = ruleGlobalsService.getTrelloCards().stream()
+                .filter(TrelloCard::isVisible)
+                .filter(c -> kiBoard.equals(c.getBoard()))
+                .filter(c -> status.equals(c.getStatus()))
+                .collect(Collectors.toList());
+
+        final Map<TrelloCard, Double> moves = CardSorter.reposition(cards, order);
+        if (moves.isEmpty()) {
+            return;
         }
+
+        logger.info("Sorting {}/{}, moving {} of {} cards", kiBoard.getName(), status, moves.size(), cards.size());
+        moves.forEach((kiCard, pos) -> {
+            kiCard.setPos(pos);
+            change(kiCard).pos = pos;
+        });
     }
 
     @Override
-    public void moveCard(TrelloCard kiCard, TrelloBoard kiBoard, String listName) {
+    public synchronized void moveCard(TrelloCard kiCard, TrelloBoard kiBoard, String listName) {
         TrelloClientBuilder builder = getTrello();
         if (builder == null) {
-            logger.warn("Trello not configured, can't create card.");
+            logger.warn("Trello not configured, can't move card.");
             return;
         }
 
-        TrelloClient trello = builder.build();
-
-        java.util.List<TrelloList> trLists = trello.getListByBoard(kiBoard.getId());
-        Optional<TrelloList> trList = trLists.stream().filter(l -> l.getName().equalsIgnoreCase(listName)).findFirst();
+        final Optional<TrelloList> trList;
+        try {
+            trList = trelloBoardCache.findList(builder.build(), kiBoard.getId(), listName);
+        } finally {
+            builder.close();
+        }
 
         if (!trList.isPresent()) {
             logger.error("Could not find list {}/{} to move a card {}", kiBoard.getName(), listName, kiCard);
             return;
         }
 
-        try {
-            logger.info("Moving a card {} from {} to {}",
-                    kiCard.getTitle(),
-                    kiCard.getStatus(),
-                    trList.get().getName());
-            trello.moveCard(kiCard.getId(), trList.get().getId());
-
-            if (kiCard.isClosed()) {
-                logger.info("Unarchiving card {}", kiCard.getTitle());
-                trello.archiveCard(kiCard.getId(), Collections.singletonMap("value", false));
-                kiCard.setClosed(false);
-            }
+        logger.info("Moving a card {} from {} to {}",
+                kiCard.getTitle(),
+                kiCard.getStatus(),
+                trList.get().getName());
+
+        final CardChange change = change(kiCard);
+        change.idList = trList.get().getId();
 
-            kiCard.setBoard(kiBoard);
-            kiCard.setStatus(trList.get().getName().replace(" ", "").toLowerCase());
-            factService.addOrUpdateFact(kiCard);
-        }  catch (NotFoundException ex) {
-            logger.warn("Card {} not found, removing from facts");
-            factService.removeFact(kiCard);
+        if (kiCard.isClosed()) {
+            logger.info("Unarchiving card {}", kiCard.getTitle());
+            change.closed = false;
+            kiCard.setClosed(false);
         }
+
+        kiCard.setBoard(kiBoard);
+        kiCard.setStatus(trList.get().getName().replace(" ", "").toLowerCase());
     }
 
     @Override
-    public void assignCard(TrelloCard card, User user) {
-        TrelloClientBuilder builder = getTrello();
-        if (builder == null) {
-            logger.warn("Trello not configured, can't create card.");
-            return;
-        }
-
-        TrelloClient trello = builder.build();
+    public synchronized void assignCard(TrelloCard card, User user) {
         userMatchingService.getTrello(user).ifPresent(userId -> {
             logger.info("Assigning {} to {}", card, user);
-            trello.assignCardToUser(card.getId(), userId);
+            change(card).addMembers.add(userId);
             card.getAssignedTo().add(user);
-            factService.addOrUpdateFact(card);
         });
     }
 
     @Override
-    public void assignLabelToCard(TrelloCard kiCard, String labelName) {
+    public synchronized void assignLabelToCard(TrelloCard kiCard, String labelName) {
         TrelloClientBuilder builder = getTrello();
         if (builder == null) {
             logger.warn("Trello not configured, can't assign label.");
@@ -221,39 +257,135 @@ public class TrelloActionsImpl implements TrelloActions {
 
         logger.info("Assigning {} to {}", labelName, kiCard);
 
-        TrelloClient trello = builder.build();
-
-        Optional<Label> trLabel = trello.getBoardLabels(kiCard.getBoard().getId()).stream()
-                .filter(l -> l.getName().equalsIgnoreCase(labelName))
-                .findFirst();
+        final Optional<Label> trLabel;
+        try {
+            trLabel = trelloBoardCache.findLabel(builder.build(), kiCard.getBoard().getId(), labelName);
+        } finally {
+            builder.close();
+        }
 
         if (!trLabel.isPresent()) {
             logger.error("Could not find label {} to add to a card {}", labelName, kiCard);
             return;
         }
 
-        trello.addLabelToCard(kiCard.getId(), trLabel.get().getId());
         kiCard.getLabels().add(TrelloLabel.builder()
+                .board(kiCard.getBoard())
                 .id(trLabel.get().getId())
                 .name(trLabel.get().getName().toLowerCase())
                 .color(trLabel.get().getColor().toLowerCase())
                 .build());
-        factService.addOrUpdateFact(kiCard);
+        change(kiCard).labels = true;
+    }
+
+    @Override
+    public synchronized void removeLabelFromCard(TrelloCard kiCard, TrelloLabel kiLabel) {
+        logger.info("Removing {} from {}", kiLabel, kiCard);
+        kiCard.getLabels().remove(kiLabel);
+        change(kiCard).labels = true;
+    }
+
+    private CardChange change(TrelloCard kiCard) {
+        return pending.computeIfAbsent(kiCard.getId(), id -> new CardChange(kiCard));
     }
 
     @Override
-    public void removeLabelFromCard(TrelloCard kiCard, TrelloLabel kiLabel) {
+    public void flush() {
+        final Map<String, CardChange> changes;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            changes = new LinkedHashMap<>(pending);
+            pending.clear();
+        }
+
         TrelloClientBuilder builder = getTrello();
         if (builder == null) {
-            logger.warn("Trello not configured, can't remove label.");
+            logger.warn("Trello not configured, dropping {} card changes.", changes.size());
             return;
         }
 
-        logger.info("Removing {} from {}", kiLabel, kiCard);
+        try {
+            write(builder.build(), changes);
+        } finally {
+            builder.close();
+        }
+    }
 
-        TrelloClient trello = builder.build();
-        trello.removeLabelFromCard(kiCard.getId(), kiLabel.getId());
-        kiCard.getLabels().remove(kiLabel);
-        factService.addOrUpdateFact(kiCard);
+    private void write(TrelloClient trello, Map<String, CardChange> changes) {
+        int updated = 0;
+        int failed = 0;
+
+        for (CardChange change: changes.values()) {
+            final TrelloCard kiCard = change.kiCard;
+            try {
+                final Map<String, Object> attributes = change.toAttributes();
+                if (!attributes.isEmpty()) {
+                    logger.debug("Updating card {}: {}", kiCard.getId(), attributes);
+                    trello.updateCard(kiCard.getId(), attributes);
+                }
+
+                // The card might have members without an account here, add just the new ones
+                for (String userId: change.addMembers) {
+                    trello.assignCardToUser(kiCard.getId(), userId);
+                }
+
+                factService.addOrUpdateFact(kiCard);
+                updated++;
+            } catch (NotFoundException ex) {
+                logger.warn("Card {} not found, removing from facts", kiCard.getId());
+                factService.removeFact(kiCard);
+                failed++;
+            } catch (RuntimeException ex) {
+                // The fact already carries the change, the next refresh restores it from trello
+                logger.error("Could not update card {}", kiCard.getId(), ex);
+                trelloRefetchService.refetch(kiCard);
+                failed++;
+            }
+        }
+
+        final Stats stats = new Stats();
+        stats.add(SingleStat.TRELLO_UPDATE_CARDS).label("result", "ok").value(updated);
+        stats.add(SingleStat.TRELLO_UPDATE_CARDS).label("result", "failed").value(failed);
+        statsService.merge(stats);
+    }
+
+    /**
+     * Card changes requested during a rule cycle. The card fact already
+     * holds the new values, they are written using a single PUT.
+     */
+    private static class CardChange {
+        final TrelloCard kiCard;
+        String idList;
+        Double pos;
+        Boolean closed;
+        boolean labels;
+        final Set<String> addMembers = new LinkedHashSet<>();
+
+        CardChange(TrelloCard kiCard) {
+            this.kiCard = kiCard;
+        }
+
+        Map<String, Object> toAttributes() {
+            final Map<String, Object> attributes = new HashMap<>();
+            if (idList != null) {
+                attributes.put("idList", idList);
+            }
+            if (pos != null) {
+                attributes.put("pos", pos);
+            }
+            if (closed != null) {
+                attributes.put("closed", closed);
+            }
+            if (labels) {
+                attributes.put("idLabels", kiCard.getLabels().stream()
+                        .map(TrelloLabel::getId)
+                        .sorted()
+                        .collect(Collectors.joining(",")));
+            }
+            return attributes;
+        }
     }
 }
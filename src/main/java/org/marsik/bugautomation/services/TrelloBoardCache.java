@@ -0,0 +1,97 @@
+package org.marsik.bugautomation.services;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.marsik.bugautomation.trello.Board;
+import org.marsik.bugautomation.trello.Label;
+import org.marsik.bugautomation.trello.TrelloClient;
+import org.marsik.bugautomation.trello.TrelloList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lists and labels of the monitored boards. Filled in by the board
+ * refresh, a lookup that misses reloads the data from trello once.
+ */
+@ApplicationScoped
+public class TrelloBoardCache {
+    private static final Logger logger = LoggerFactory.getLogger(TrelloBoardCache.class);
+
+    private final Map<String, List<TrelloList>> lists = new ConcurrentHashMap<>();
+    private final Map<String, List<Label>> labels = new ConcurrentHashMap<>();
+
+    /**
+     * Replace the cached data using a board downloaded with its lists and labels.
+     */
+    public void update(Board board) {
+        put(lists, board.getId(), board.getLists());
+        put(labels, board.getId(), board.getLabels());
+    }
+
+    public void invalidate(String boardId) {
+        lists.remove(boardId);
+        labels.remove(boardId);
+    }
+
+    /**
+     * Find an open list on a board by its name (case insensitive).
+     */
+    public Optional<TrelloList> findList(TrelloClient trello, String boardId, String name) {
+        Optional<TrelloList> list = findList(lists.get(boardId), name);
+        if (!list.isPresent()) {
+            logger.debug("List {} not cached for board {}, reloading", name, boardId);
+            put(lists, boardId, trello.getListByBoard(boardId));
+            list = findList(lists.get(boardId), name);
+        }
+        return list;
+    }
+
+    /**
+     * Find a label on a board by its name (case insensitive).
+     */
+    public Optional<Label> findLabel(TrelloClient trello, String boardId, String name) {
+        Optional<Label> label = findLabel(labels.get(boardId), name);
+        if (!label.isPresent()) {
+            logger.debug("Label {} not cached for board {}, reloading", name, boardId);
+            put(labels, boardId, trello.getBoardLabels(boardId));
+            label = findLabel(labels.get(boardId), name);
+        }
+        return label;
+    }
+
+    private static <T> void put(Map<String, List<T>> cache, String boardId, Collection<T> values) {
+        if (values == null) {
+            cache.remove(boardId);
+        } else {
+            cache.put(boardId, Collections.unmodifiableList(new ArrayList<>(values)));
+        }
+    }
+
+    private static Optional<TrelloList> findList(List<TrelloList> candidates, String name) {
+        if (candidates == null) {
+            return Optional.empty();
+        }
+
+        return candidates.stream()
+                .filter(l -> !Boolean.TRUE.equals(l.getClosed()))
+                .filter(l -> l.getName().equalsIgnoreCase(name))
+                .findFirst();
+    }
+
+    private static Optional<Label> findLabel(List<Label> candidates, String name) {
+        if (candidates == null) {
+            return Optional.empty();
+        }
+
+        return candidates.stream()
+                .filter(l -> l.getName() != null && l.getName().equalsIgnoreCase(name))
+                .findFirst();
+    }
+}
@@ -0,0 +1,39 @@
+package org.marsik.bugautomation.services;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.marsik.bugautomation.facts.TrelloCard;
+
+/**
+ * Cards whose fact no longer matches trello because writing the change
+ * requested by the rules failed. The card activity date did not change,
+ * so the refresh job has to read their boards again explicitly.
+ */
+@ApplicationScoped
+public class TrelloRefetchService {
+    // Card id -> board id
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+
+    public void refetch(TrelloCard kiCard) {
+        if (kiCard.getBoard() != null) {
+            pending.put(kiCard.getId(), kiCard.getBoard().getId());
+        }
+    }
+
+    /**
+     * @return the cards to read again mapped to their board ids, they are removed from the queue
+     */
+    public Map<String, String> drain() {
+        final Map<String, String> cards = new HashMap<>();
+        for (Iterator<Map.Entry<String, String>> it = pending.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<String, String> entry = it.next();
+            cards.put(entry.getKey(), entry.getValue());
+            it.remove();
+        }
+        return cards;
+    }
+}
@@ -36,7 +36,7 @@ public class UserMatchingService {
         loadUsers(configurationService.getProperties());
     }
 
-    public User createUser(String name, Collection<String> usernames, Collection<String> emails, Collection<String> githubNicks) {
+    public synchronized User createUser(String name, Collection<String> usernames, Collection<String> emails, Collection<String> githubNicks) {
         User user = new User(name);
 
         users.put(user.getName(), user);
@@ -56,7 +56,7 @@ public class UserMatchingService {
         return user;
     }
 
-    public Optional<User> getByBugzilla(String email) {
+    public synchronized Optional<User> getByBugzilla(String email) {
         User user = bugzillaToUser.get(email);
 
         if (user == null) {
@@ -67,7 +67,7 @@ public class UserMatchingService {
         return Optional.of(user);
     }
 
-    public Optional<User> getByTrello(String username) {
+    public synchronized Optional<User> getByTrello(String username) {
         User user = trelloToUser.get(username);
 
         if (user == null) {
@@ -78,7 +78,7 @@ public class UserMatchingService {
         return Optional.of(user);
     }
 
-    public Optional<User> getByGithub(String username) {
+    public synchronized Optional<User> getByGithub(String username) {
         User user = githubToUser.get(username.toLowerCase());
 
         if (user == null) {
@@ -89,17 +89,17 @@ public class UserMatchingService {
         return Optional.of(user);
     }
 
-    public Optional<String> getTrello(User user) {
+    public synchronized Optional<String> getTrello(User user) {
         final BiMap<User, String> userToTrello = trelloToUser.inverse();
         return userToTrello.containsKey(user) ? Optional.of(userToTrello.get(user)) : Optional.empty();
     }
 
-    public Optional<String> getBugzilla(User user) {
+    public synchronized Optional<String> getBugzilla(User user) {
         final BiMap<User, String> userToBz = bugzillaToUser.inverse();
         return userToBz.containsKey(user) ? Optional.of(userToBz.get(user)) : Optional.empty();
     }
 
-    public Optional<String> getGithub(User user) {
+    public synchronized Optional<String> getGithub(User user) {
         final BiMap<User, String> userToGh = githubToUser.inverse();
         return userToGh.containsKey(user) ? Optional.of(userToGh.get(user)) : Optional.empty();
     }
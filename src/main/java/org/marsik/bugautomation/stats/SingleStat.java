@@ -6,7 +6,33 @@ public enum SingleStat {
     SPRINT_CONTENT("bug_automation_sprint_content", StatType.GAUGE),
     BUGS("bug_automation_bugs", StatType.GAUGE),
     BUGS_REFRESH_TIME("bug_automation_bugs_refresh_time", StatType.GAUGE),
-    TRELLO_REFRESH_TIME("bug_automation_trello_refresh_time", StatType.GAUGE);
+    BUGS_DELTA_SIZE("bug_automation_bugs_delta_size", StatType.GAUGE),
+    BUGS_RECONCILE_SIZE("bug_automation_bugs_reconcile_size", StatType.GAUGE),
+    BUGS_RECONCILE_TIME("bug_automation_bugs_reconcile_time", StatType.GAUGE),
+    BUGS_RESPONSE_BYTES("bug_automation_bugs_response_bytes", StatType.GAUGE),
+    BUGZILLA_UPDATE_BATCHES("bug_automation_bugzilla_update_batches", StatType.COUNTER),
+    BUGZILLA_UPDATE_BUGS("bug_automation_bugzilla_update_bugs", StatType.COUNTER),
+    BUGZILLA_UPDATE_RETRIES("bug_automation_bugzilla_update_retries", StatType.COUNTER),
+    BUGZILLA_UPDATE_TIME("bug_automation_bugzilla_update_time", StatType.GAUGE),
+    TRELLO_REFRESH_TIME("bug_automation_trello_refresh_time", StatType.GAUGE),
+    TRELLO_BOARD_FETCH_TIME("bug_automation_trello_board_fetch_time", StatType.GAUGE),
+    TRELLO_BOARD_PROCESS_TIME("bug_automation_trello_board_process_time", StatType.GAUGE),
+    TRELLO_RESPONSE_BYTES("bug_automation_trello_response_bytes", StatType.GAUGE),
+    TRELLO_BOARD_CARDS("bug_automation_trello_board_cards", StatType.GAUGE),
+    TRELLO_BOARD_UPDATES("bug_automation_trello_board_updates", StatType.COUNTER),
+    TRELLO_UPDATE_CARDS("bug_automation_trello_update_cards", StatType.COUNTER),
+    TRELLO_RATELIMIT_QUEUED("bug_automation_trello_ratelimit_queued", StatType.COUNTER),
+    TRELLO_RATELIMIT_THROTTLED("bug_automation_trello_ratelimit_throttled", StatType.COUNTER),
+    TRELLO_RATELIMIT_REJECTED("bug_automation_trello_ratelimit_rejected", StatType.COUNTER),
+    TRELLO_RATELIMIT_WAITING("bug_automation_trello_ratelimit_waiting", StatType.GAUGE),
+    GITHUB_REFRESH_TIME("bug_automation_github_refresh_time", StatType.GAUGE),
+    GITHUB_PAGES("bug_automation_github_pages", StatType.COUNTER),
+    GITHUB_RATELIMIT_REMAINING("bug_automation_github_ratelimit_remaining", StatType.GAUGE),
+    GERRIT_REFRESH_TIME("bug_automation_gerrit_refresh_time", StatType.GAUGE),
+    GERRIT_CHANGES("bug_automation_gerrit_changes", StatType.GAUGE),
+    CONNECTOR_CIRCUIT_OPEN("bug_automation_connector_circuit_open", StatType.GAUGE),
+    CONNECTOR_ERROR_PERCENTAGE("bug_automation_connector_error_percentage", StatType.GAUGE),
+    CONNECTOR_LATENCY("bug_automation_connector_latency_ms", StatType.SUMMARY);
 
     private final String name;
     private final StatType type;
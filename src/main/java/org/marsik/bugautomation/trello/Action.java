@@ -0,0 +1,27 @@
+package org.marsik.bugautomation.trello;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+/**
+ * Entry of the board action feed.
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@XmlRootElement
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Action extends BaseObject {
+    String type;
+    String date;
+    ActionData data;
+
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ActionData {
+        // Only id and name are filled in
+        Card card;
+    }
+}
@@ -0,0 +1,142 @@
+package org.marsik.bugautomation.trello;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Card description split into the {{ key:value }} custom fields and the
+ * text without the field sections. Both are computed in a single scan
+ * and remembered for every description seen recently.
+ */
+public final class CardDescription {
+    private static final LoadingCache<String, CardDescription> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .build(new CacheLoader<String, CardDescription>() {
+                @Override
+                public CardDescription load(String text) {
+                    return scan(text);
+                }
+            });
+
+    private final Map<String, String> fields;
+    private final String clean;
+
+    private CardDescription(Map<String, String> fields, String clean) {
+        this.fields = fields;
+        this.clean = clean;
+    }
+
+    public static CardDescription parse(String text) {
+        return CACHE.getUnchecked(text);
+    }
+
+    /**
+     * Custom fields, the last value wins when a key repeats.
+     */
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    /**
+     * The description with every {{ }} section replaced by a single space.
+     */
+    public String getClean() {
+        return clean;
+    }
+
+    static CardDescription scan(String text) {
+        final Map<String, String> fields = new HashMap<>();
+        final StringBuilder clean = new StringBuilder(text.length());
+        final int length = text.length();
+
+        int i = 0;
+        while (i < length) {
+            final char c = text.charAt(i);
+            if (c != '{' || i + 1 >= length || text.charAt(i + 1) != '{') {
+                clean.append(c);
+                i++;
+                continue;
+            }
+
+            // A section ends at the first closing brace, which has to be doubled
+            final int close = text.indexOf('}', i + 2);
+            if (close < 0) {
+                clean.append(text, i, length);
+                break;
+            }
+
+            if (close + 1 >= length || text.charAt(close + 1) != '}') {
+                // No section can start before the brace
+                clean.append(text, i, close);
+                i = close;
+                continue;
+            }
+
+            // Extra opening braces belong to the text, fields start after the last one
+            final int open = text.lastIndexOf('{', close);
+            if (open == i + 1 || text.charAt(open - 1) == '{') {
+                readFields(text, open + 1, close, fields);
+            }
+
+            clean.append(' ');
+            i = close + 2;
+        }
+
+        return new CardDescription(Collections.unmodifiableMap(fields), clean.toString());
+    }
+
+    /**
+     * Read space separated key:value or key=value fields. A section that
+     * contains anything else is not a field section and yields nothing.
+     */
+    private static void readFields(String text, int start, int end, Map<String, String> fields) {
+        final Map<String, String> section = new HashMap<>();
+
+        int i = start;
+        while (i < end) {
+            if (text.charAt(i) == ' ') {
+                i++;
+                continue;
+            }
+
+            int keyEnd = i;
+            while (keyEnd < end && isKeyChar(text.charAt(keyEnd))) {
+                keyEnd++;
+            }
+
+            if (keyEnd == i || keyEnd == end || !isSeparator(text.charAt(keyEnd))) {
+                return;
+            }
+
+            int valueEnd = keyEnd + 1;
+            while (valueEnd < end && text.charAt(valueEnd) != ' ') {
+                if (!isValueChar(text.charAt(valueEnd))) {
+                    return;
+                }
+                valueEnd++;
+            }
+
+            section.put(text.substring(i, keyEnd), text.substring(keyEnd + 1, valueEnd));
+            i = valueEnd;
+        }
+
+        fields.putAll(section);
+    }
+
+    private static boolean isKeyChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9';
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ':' || c == '=';
+    }
+
+    private static boolean isValueChar(char c) {
+        return isKeyChar(c) || "@.:/_=?-".indexOf(c) >= 0;
+    }
+}
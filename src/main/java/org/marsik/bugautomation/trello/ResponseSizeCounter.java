@@ -0,0 +1,40 @@
+package org.marsik.bugautomation.trello;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.input.ProxyInputStream;
+
+/**
+ * Counts the bytes of all response bodies read by a client.
+ */
+public class ResponseSizeCounter implements ReaderInterceptor {
+    private final AtomicLong bytes = new AtomicLong();
+
+    @Override
+    public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException, WebApplicationException {
+        final InputStream original = context.getInputStream();
+        context.setInputStream(new ProxyInputStream(original) {
+            @Override
+            protected void afterRead(int n) {
+                if (n > 0) {
+                    bytes.addAndGet(n);
+                }
+            }
+        });
+
+        try {
+            return context.proceed();
+        } finally {
+            context.setInputStream(original);
+        }
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+}
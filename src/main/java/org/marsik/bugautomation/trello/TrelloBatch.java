@@ -0,0 +1,178 @@
+package org.marsik.bugautomation.trello;
+
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.WebApplicationException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Lists;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects GET requests and executes them using the trello /1/batch
+ * endpoint, up to ten per call. Sub-requests that fail with a server
+ * error are retried, a batch call rejected with a client error is split
+ * to isolate the offending url.
+ */
+public class TrelloBatch {
+    private static final Logger logger = LoggerFactory.getLogger(TrelloBatch.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static final int MAX_URLS = 10;
+    static final int MAX_ATTEMPTS = 2;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    public static final TypeReference<List<Action>> ACTIONS = new TypeReference<List<Action>>() {};
+    public static final TypeReference<Board> BOARD = new TypeReference<Board>() {};
+    public static final TypeReference<Card> CARD = new TypeReference<Card>() {};
+
+    private final TrelloClient trello;
+    private final List<Request<?>> requests = new ArrayList<>();
+
+    public TrelloBatch(TrelloClient trello) {
+        this.trello = trello;
+    }
+
+    /**
+     * Queue a request, the url is relative to /1 (ie. /boards/{id}).
+     */
+    public <T> Request<T> get(String url, TypeReference<T> type) {
+        final Request<T> request = new Request<>(url, type);
+        requests.add(request);
+        return request;
+    }
+
+    public void execute() {
+        List<Request<?>> todo = requests.stream()
+                .filter(r -> !r.done)
+                .collect(Collectors.toList());
+
+        for (int attempt = 1; !todo.isEmpty(); attempt++) {
+            for (List<Request<?>> chunk: Lists.partition(todo, MAX_URLS)) {
+                call(chunk);
+            }
+
+            // Retry what failed on the trello side
+            final boolean retry = attempt < MAX_ATTEMPTS;
+            todo = todo.stream()
+                    .filter(r -> retry && r.done && r.status >= 500)
+                    .peek(r -> r.done = false)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private void call(List<Request<?>> chunk) {
+        final List<JsonNode> responses;
+        try {
+            responses = trello.batch(chunk.stream()
+                    .map(r -> encode(r.url))
+                    .collect(Collectors.joining(",")));
+        } catch (RuntimeException ex) {
+            // Only a client error can be caused by one of the urls, anything
+            // else (outage, throttling, server error) would hit every half too
+            if (chunk.size() == 1 || !isUrlError(ex)) {
+                chunk.forEach(r -> r.fail(ex));
+                return;
+            }
+
+            logger.debug("Trello batch of {} failed, splitting: {}", chunk.size(), ex.getMessage());
+            final int half = chunk.size() / 2;
+            call(chunk.subList(0, half));
+            call(chunk.subList(half, chunk.size()));
+            return;
+        }
+
+        for (int i = 0; i < chunk.size(); i++) {
+            chunk.get(i).complete(i < responses.size() ? responses.get(i) : null);
+        }
+    }
+
+    private static boolean isUrlError(RuntimeException ex) {
+        if (!(ex instanceof WebApplicationException)) {
+            return false;
+        }
+
+        final int status = ((WebApplicationException) ex).getResponse().getStatus();
+        return status >= 400 && status < 500 && status != TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Commas separate the urls, so the ones inside an url (field lists) are
+     * escaped first. The result is then encoded as a query parameter value.
+     */
+    static String encode(String url) {
+        try {
+            return URLEncoder.encode(url.replace(",", "%2C"), "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static class Request<T> {
+        private final String url;
+        private final TypeReference<T> type;
+
+        private boolean done;
+        private int status;
+        private T value;
+        private RuntimeException error;
+
+        private Request(String url, TypeReference<T> type) {
+            this.url = url;
+            this.type = type;
+        }
+
+        private void complete(JsonNode response) {
+            done = true;
+
+            // Successful sub-requests are wrapped as {"200": body}
+            if (response != null && response.has("200")) {
+                try {
+                    value = MAPPER.readValue(response.get("200"), type);
+                    status = 200;
+                    error = null;
+                } catch (IOException ex) {
+                    fail(new WebApplicationException(ex, 500));
+                }
+                return;
+            }
+
+            status = response != null && response.has("statusCode") ? response.get("statusCode").asInt() : 500;
+            final String message = "Trello batch request " + url + " failed"
+                    + (response != null && response.has("message") ? ": " + response.get("message").asText() : "");
+            error = status == 404 ? new NotFoundException(message) : new WebApplicationException(message, status);
+        }
+
+        private void fail(RuntimeException ex) {
+            done = true;
+            // Without an http answer (ie. connector unavailable) there is nothing to retry
+            status = ex instanceof WebApplicationException
+                    ? ((WebApplicationException) ex).getResponse().getStatus()
+                    : 0;
+            error = ex;
+        }
+
+        /**
+         * @return the response body, or throws the exception the request failed with
+         */
+        public T get() {
+            if (!done) {
+                throw new IllegalStateException("Trello batch was not executed");
+            }
+
+            if (error != null) {
+                throw error;
+            }
+
+            return value;
+        }
+    }
+}
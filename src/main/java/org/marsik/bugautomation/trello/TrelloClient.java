@@ -3,6 +3,7 @@ package org.marsik.bugautomation.trello;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
+import javax.ws.rs.Encoded;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -13,6 +14,8 @@ import javax.ws.rs.QueryParam;
 import java.util.List;
 import java.util.Map;
 
+import org.codehaus.jackson.JsonNode;
+
 public interface TrelloClient {
     @GET
     @Path("/1/boards/{id}")
@@ -25,7 +28,42 @@ public interface TrelloClient {
     Board getBoardWithData(@PathParam("id") String id,
             @QueryParam("lists") @DefaultValue("open") String lists,
             @QueryParam("cards") @DefaultValue("open") String cards,
-            @QueryParam("members") @DefaultValue("all") String members);
+            @QueryParam("members") @DefaultValue("all") String members,
+            @QueryParam("labels") @DefaultValue("all") String labels);
+
+    /**
+     * Board actions newer than the given action id, the newest first.
+     */
+    @GET
+    @Path("/1/boards/{id}/actions")
+    @Consumes("application/json")
+    List<Action> getBoardActions(@PathParam("id") String id,
+            @QueryParam("since") String since,
+            @QueryParam("limit") int limit);
+
+    @GET
+    @Path("/1/cards/{id}")
+    @Consumes("application/json")
+    Card getCard(@PathParam("id") String cardId);
+
+    /**
+     * Run up to ten comma separated GET urls (relative to /1) at once.
+     * The value is sent as is and has to be encoded already.
+     */
+    @GET
+    @Path("/1/batch")
+    @Consumes("application/json")
+    List<JsonNode> batch(@QueryParam("urls") @Encoded String urls);
+
+    @POST
+    @Path("/1/webhooks")
+    @Consumes("application/json")
+    void createWebhook(Map<String, Object> webhook);
+
+    @GET
+    @Path("/1/tokens/{token}/webhooks")
+    @Consumes("application/json")
+    List<Webhook> getWebhooks(@PathParam("token") String token);
 
     @GET
     @Path("/1/boards/{id}/labels")
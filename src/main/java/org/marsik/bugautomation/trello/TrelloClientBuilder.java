@@ -1,27 +1,81 @@
 package org.marsik.bugautomation.trello;
 
 import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
 import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
+import org.marsik.bugautomation.hystrix.Connector;
+import org.marsik.bugautomation.hystrix.ConnectorProxy;
 
-public class TrelloClientBuilder {
+/**
+ * Creates trello clients, each with its own connection pool. The pools
+ * stay open until {@link #close()} is called.
+ */
+public class TrelloClientBuilder implements AutoCloseable {
     private static final String TRELLO_BASE = "https://api.trello.com";
 
     String applicationKey;
     String token;
     Client restClient;
+    int connectionPoolSize = 1;
+    TrelloRateLimiter rateLimiter;
+    ResponseSizeCounter responseSizeCounter;
+    private final List<Client> restClients = new ArrayList<>();
 
     public TrelloClientBuilder(String applicationKey, String token) {
         this.applicationKey = applicationKey;
         this.token = token;
     }
 
+    /**
+     * Number of pooled connections, needed when the client is shared by threads.
+     */
+    public TrelloClientBuilder connectionPoolSize(int connectionPoolSize) {
+        this.connectionPoolSize = connectionPoolSize;
+        return this;
+    }
+
+    /**
+     * Share the request rate limit with other clients.
+     */
+    public TrelloClientBuilder rateLimiter(TrelloRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    /**
+     * Count the size of the responses read by the client.
+     */
+    public TrelloClientBuilder responseSizeCounter(ResponseSizeCounter responseSizeCounter) {
+        this.responseSizeCounter = responseSizeCounter;
+        return this;
+    }
+
     public TrelloClient build() {
-        restClient = ClientBuilder.newBuilder().build();
+        restClient = new ResteasyClientBuilder()
+                .connectionPoolSize(connectionPoolSize)
+                .maxPooledPerRoute(connectionPoolSize)
+                .build();
+        restClients.add(restClient);
+        if (responseSizeCounter != null) {
+            restClient.register(responseSizeCounter);
+        }
         ResteasyWebTarget target = (ResteasyWebTarget)restClient.target(TRELLO_BASE)
                 .queryParam("key", applicationKey)
                 .queryParam("token", token);
-        return target.proxy(TrelloClient.class);
+        TrelloClient client = ConnectorProxy.wrap(TrelloClient.class, target.proxy(TrelloClient.class),
+                Connector.TRELLO);
+        return rateLimiter == null ? client : rateLimiter.wrap(client);
+    }
+
+    /**
+     * Close the connection pools of all clients built so far.
+     */
+    @Override
+    public void close() {
+        restClients.forEach(Client::close);
+        restClients.clear();
     }
 }
@@ -0,0 +1,221 @@
+package org.marsik.bugautomation.trello;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.GET;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import org.marsik.bugautomation.hystrix.Connector;
+import org.marsik.bugautomation.hystrix.ConnectorUnavailableException;
+import org.marsik.bugautomation.stats.SingleStat;
+import org.marsik.bugautomation.stats.Stats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Token bucket shared by all trello clients. Writes are served before
+ * waiting reads, a 429 response pauses every caller for the time trello
+ * asked for and the call is retried.
+ */
+@ApplicationScoped
+public class TrelloRateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(TrelloRateLimiter.class);
+
+    // Trello allows 100 requests per 10 seconds for a token
+    public static final int DEFAULT_RATE = 10;
+    public static final int DEFAULT_BURST = 10;
+
+    static final int MAX_RETRIES = 3;
+    private static final long ACQUIRE_TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+    private static final long BASE_BACKOFF = TimeUnit.SECONDS.toMillis(1);
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private double rate = DEFAULT_RATE;
+    private int burst = DEFAULT_BURST;
+    private double tokens = DEFAULT_BURST;
+    private long lastRefill = System.nanoTime();
+    private long pausedUntil = 0;
+    private int waitingWrites = 0;
+    private int waiting = 0;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param rate requests per second
+     * @param burst requests that can be made at once after a quiet period
+     */
+    public synchronized void configure(double rate, int burst) {
+        if (rate <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Invalid trello rate limit " + rate + "/" + burst);
+        }
+        refill();
+        this.rate = rate;
+        this.burst = burst;
+        tokens = Math.min(tokens, burst);
+    }
+
+    /**
+     * Wait for a request slot.
+     *
+     * @return false when no slot was available before the timeout
+     */
+    public synchronized boolean acquire(boolean write, long timeoutMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean counted = false;
+
+        if (write) {
+            waitingWrites++;
+        }
+        waiting++;
+
+        try {
+            while (true) {
+                refill();
+                final long now = System.nanoTime();
+
+                long waitNanos;
+                if (now < pausedUntil) {
+                    waitNanos = pausedUntil - now;
+                } else if (tokens >= 1 && (write || waitingWrites == 0)) {
+                    tokens -= 1;
+                    return true;
+                } else if (tokens >= 1) {
+                    // Let the waiting writes go first
+                    waitNanos = TimeUnit.MILLISECONDS.toNanos(1);
+                } else {
+                    waitNanos = (long) Math.ceil((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1));
+                }
+
+                if (now >= deadline) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+
+                if (!counted) {
+                    queued.incrementAndGet();
+                    counted = true;
+                }
+
+                waitNanos = Math.max(1, Math.min(waitNanos, deadline - now));
+                TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+            }
+        } finally {
+            if (write) {
+                waitingWrites--;
+            }
+            waiting--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stop handing out request slots for a while.
+     */
+    public synchronized void pause(long millis) {
+        pausedUntil = Math.max(pausedUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+        notifyAll();
+    }
+
+    private void refill() {
+        final long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+
+    /**
+     * Make all calls of a trello client go through this limiter.
+     */
+    public TrelloClient wrap(TrelloClient client) {
+        return (TrelloClient) Proxy.newProxyInstance(TrelloClient.class.getClassLoader(),
+                new Class<?>[] { TrelloClient.class },
+                new LimitedCall(client));
+    }
+
+    private class LimitedCall implements InvocationHandler {
+        private final TrelloClient target;
+
+        LimitedCall(TrelloClient target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(target, args);
+            }
+
+            final boolean write = !method.isAnnotationPresent(GET.class);
+            for (int attempt = 0; ; attempt++) {
+                if (!acquire(write, ACQUIRE_TIMEOUT)) {
+                    logger.warn("Trello rate limit, giving up on {}", method.getName());
+                    throw new ConnectorUnavailableException(Connector.TRELLO,
+                            HystrixRuntimeException.FailureType.REJECTED_SEMAPHORE_EXECUTION, null);
+                }
+
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    if (!isTooManyRequests(e.getCause())) {
+                        throw e.getCause();
+                    }
+
+                    throttled.incrementAndGet();
+                    if (attempt >= MAX_RETRIES) {
+                        rejected.incrementAndGet();
+                        throw e.getCause();
+                    }
+
+                    final long delay = retryDelay((ClientErrorException) e.getCause(), attempt);
+                    logger.info("Trello rate limit hit by {}, retrying in {} ms", method.getName(), delay);
+                    pause(delay);
+                }
+            }
+        }
+    }
+
+    private static boolean isTooManyRequests(Throwable ex) {
+        return ex instanceof ClientErrorException
+                && ((ClientErrorException) ex).getResponse().getStatus() == TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Use the delay trello asked for, or back off exponentially, plus up to 50% jitter.
+     */
+    static long retryDelay(ClientErrorException ex, int attempt) {
+        long delay = BASE_BACKOFF << attempt;
+
+        final String retryAfter = ex.getResponse().getHeaderString("Retry-After");
+        if (retryAfter != null) {
+            try {
+                delay = TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+            } catch (NumberFormatException e) {
+                logger.debug("Ignoring Retry-After {}", retryAfter);
+            }
+        }
+
+        return delay + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Counter increments since the last collection and the current queue length.
+     */
+    public Stats collect() {
+        final Stats stats = new Stats();
+        stats.add(SingleStat.TRELLO_RATELIMIT_QUEUED).value((double) queued.getAndSet(0));
+        stats.add(SingleStat.TRELLO_RATELIMIT_THROTTLED).value((double) throttled.getAndSet(0));
+        stats.add(SingleStat.TRELLO_RATELIMIT_REJECTED).value((double) rejected.getAndSet(0));
+        synchronized (this) {
+            stats.add(SingleStat.TRELLO_RATELIMIT_WAITING).value(waiting);
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,22 @@
+package org.marsik.bugautomation.util;
+
+final class HashUtil {
+    private HashUtil() {
+    }
+
+    /**
+     * Spread the bits of the key, bug ids are mostly sequential.
+     */
+    static int mix(int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static int capacityFor(int expected, float loadFactor) {
+        int capacity = 16;
+        while (capacity * loadFactor < expected) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
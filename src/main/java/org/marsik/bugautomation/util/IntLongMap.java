@@ -0,0 +1,145 @@
+package org.marsik.bugautomation.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from int keys to long values, without boxing.
+ * Not thread safe.
+ */
+public class IntLongMap {
+    private static final int FREE = 0;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private long[] values;
+    private int size;
+
+    // The zero key marks free slots, so its value is kept aside
+    private boolean hasZero;
+    private long zeroValue;
+
+    public IntLongMap() {
+        this(16);
+    }
+
+    public IntLongMap(int expected) {
+        allocate(HashUtil.capacityFor(expected, LOAD_FACTOR));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == FREE) {
+            return hasZero;
+        }
+        return keys[slot(key)] == key;
+    }
+
+    /**
+     * @return the value for the key or `missing` when the key is not present
+     */
+    public long get(int key, long missing) {
+        if (key == FREE) {
+            return hasZero ? zeroValue : missing;
+        }
+
+        final int slot = slot(key);
+        return keys[slot] == key ? values[slot] : missing;
+    }
+
+    public void put(int key, long value) {
+        if (key == FREE) {
+            if (!hasZero) {
+                hasZero = true;
+                size++;
+            }
+            zeroValue = value;
+            return;
+        }
+
+        final int slot = slot(key);
+        if (keys[slot] == key) {
+            values[slot] = value;
+            return;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * LOAD_FACTOR) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    public void remove(int key) {
+        if (key == FREE) {
+            if (hasZero) {
+                hasZero = false;
+                size--;
+            }
+            return;
+        }
+
+        int slot = slot(key);
+        if (keys[slot] != key) {
+            return;
+        }
+
+        keys[slot] = FREE;
+        size--;
+
+        // Shift the following entries of the probe sequence back
+        final int mask = keys.length - 1;
+        int next = (slot + 1) & mask;
+        while (keys[next] != FREE) {
+            final int ideal = HashUtil.mix(keys[next]) & mask;
+            if (((next - ideal) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                keys[next] = FREE;
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        hasZero = false;
+        size = 0;
+    }
+
+    // Find the slot of the key or the free slot where it belongs
+    private int slot(int key) {
+        final int mask = keys.length - 1;
+        int slot = HashUtil.mix(key) & mask;
+        while (keys[slot] != FREE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+    }
+
+    private void rehash(int capacity) {
+        final int[] oldKeys = keys;
+        final long[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                final int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
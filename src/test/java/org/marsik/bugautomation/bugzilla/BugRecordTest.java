@@ -0,0 +1,71 @@
+package org.marsik.bugautomation.bugzilla;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class BugRecordTest {
+    @Test
+    public void isBug() throws Exception {
+        Map<String, Object> bug = new HashMap<>();
+        bug.put("id", 1234567);
+        bug.put("last_change_time", new Date(1000));
+        assertThat(BugRecord.isBug(bug))
+                .isTrue();
+
+        Map<String, Object> flag = new HashMap<>();
+        flag.put("id", 42);
+        flag.put("name", "ovirt-4.1.z");
+        flag.put("status", "+");
+        assertThat(BugRecord.isBug(flag))
+                .isFalse();
+    }
+
+    @Test
+    public void compactFields() throws Exception {
+        Map<String, Object> bug = new HashMap<>();
+        bug.put("id", 1234567);
+        bug.put("last_change_time", new Date(1000));
+        bug.put("summary", "Summary");
+        bug.put("target_milestone", "---");
+        bug.put("target_release", new Object[] {"ovirt-4.1.3"});
+        bug.put("keywords", new Object[] {"Triaged", "ZStream"});
+        bug.put("blocks", new Object[] {1, 2});
+        bug.put("cf_unused_field", "dropped");
+
+        BugProxy proxy = new BugProxy(BugRecord.of(bug));
+        assertThat(proxy.getId()).isEqualTo("1234567");
+        assertThat(proxy.getLastChangeTime()).isEqualTo(new Date(1000));
+        assertThat(proxy.getSummary()).isEqualTo("Summary");
+        assertThat(proxy.getTargetMilestone()).isEmpty();
+        assertThat(proxy.getTargetRelease()).isEqualTo("ovirt-4.1.3");
+        assertThat(proxy.getKeywords()).containsExactly("Triaged", "ZStream");
+        assertThat(proxy.getBlocks()).containsExactly("1", "2");
+        assertThat(proxy.getCommunity()).isEmpty();
+        assertThat(proxy.getFlags()).isEmpty();
+    }
+
+    @Test
+    public void searchResult() throws Exception {
+        Map<String, Object> bug = new HashMap<>();
+        bug.put("id", 1234567);
+
+        BugRecord record = BugRecord.of(bug);
+        assertThat(record.getLastChangeDate()).isNull();
+        assertThat(record.getTargetRelease()).isNull();
+        assertThat(record.getVerified()).isEmpty();
+    }
+
+    @Test
+    public void projectionIsABug() throws Exception {
+        Map<String, Object> bug = new HashMap<>();
+        BugRecord.FIELDS.forEach(f -> bug.put(f, ""));
+
+        assertThat(BugRecord.FIELDS).contains("id", "flags", "cf_verified");
+        assertThat(BugRecord.isBug(bug)).isTrue();
+    }
+}
@@ -0,0 +1,169 @@
+package org.marsik.bugautomation.bugzilla;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs real XML-RPC responses through the client, the custom type factory
+ * and the streaming bug parser.
+ */
+public class BugzillaClientTest {
+    private static final String LOGIN_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<methodResponse><params><param><value><struct>"
+            + "<member><name>id</name><value><int>1</int></value></member>"
+            + "<member><name>token</name><value><string>1-token</string></value></member>"
+            + "</struct></value></param></params></methodResponse>";
+
+    private static final String BUG_1 = "<value><struct>"
+            + "<member><name>id</name><value><int>1234567</int></value></member>"
+            + "<member><name>last_change_time</name>"
+            + "<value><dateTime.iso8601>20170102T10:00:00</dateTime.iso8601></value></member>"
+            + "<member><name>summary</name><value><string>First bug</string></value></member>"
+            + "<member><name>status</name><value><string>NEW</string></value></member>"
+            + "<member><name>flags</name><value><array><data><value><struct>"
+            + "<member><name>id</name><value><int>42</int></value></member>"
+            + "<member><name>name</name><value><string>ovirt-4.1.z</string></value></member>"
+            + "<member><name>status</name><value><string>+</string></value></member>"
+            + "</struct></value></data></array></value></member>"
+            + "<member><name>keywords</name><value><array><data>"
+            + "<value><string>Triaged</string></value>"
+            + "</data></array></value></member>"
+            + "</struct></value>";
+
+    private static final String BUG_2 = "<value><struct>"
+            + "<member><name>id</name><value><int>1234568</int></value></member>"
+            + "<member><name>last_change_time</name>"
+            + "<value><dateTime.iso8601>20170103T10:00:00</dateTime.iso8601></value></member>"
+            + "<member><name>summary</name><value><string>Second bug</string></value></member>"
+            + "<member><name>flags</name><value><array><data></data></array></value></member>"
+            + "</struct></value>";
+
+    private static final String BUGS_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<methodResponse><params><param><value><struct>"
+            + "<member><name>faults</name><value><array><data></data></array></value></member>"
+            + "<member><name>bugs</name><value><array><data>"
+            + BUG_1 + BUG_2
+            + "</data></array></value></member>"
+            + "</struct></value></param></params></methodResponse>";
+
+    private static final String NO_BUGS_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<methodResponse><params><param><value><struct>"
+            + "<member><name>faults</name><value><array><data></data></array></value></member>"
+            + "</struct></value></param></params></methodResponse>";
+
+    private static final String FAULT_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<methodResponse><fault><value><struct>"
+            + "<member><name>faultCode</name><value><int>102</int></value></member>"
+            + "<member><name>faultString</name><value><string>Access denied</string></value></member>"
+            + "</struct></value></fault></methodResponse>";
+
+    private HttpServer server;
+    private volatile String bugResponse;
+    private BugzillaClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/xmlrpc.cgi", exchange -> {
+            String request = read(exchange.getRequestBody());
+            byte[] response = (request.contains("<methodName>User.login</methodName>")
+                    ? LOGIN_RESPONSE : bugResponse).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/xml");
+            // Chunked, so a cut off body ends cleanly in the middle of the XML
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(response);
+            }
+        });
+        server.start();
+
+        client = new BugzillaClient("http://127.0.0.1:" + server.getAddress().getPort());
+        client.setAuthorizationCallback(new AuthorizationCallback("user", "password"));
+        client.open();
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.stop(0);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void streamsParsedBugsToConsumer() throws Exception {
+        bugResponse = BUGS_RESPONSE;
+        List<BugProxy> bugs = new ArrayList<>();
+
+        client.getBugs(Arrays.asList("1234567", "1234568"), bugs::add);
+
+        assertThat(bugs).hasSize(2);
+        assertThat(bugs.get(0).getId()).isEqualTo("1234567");
+        assertThat(bugs.get(0).getSummary()).isEqualTo("First bug");
+        assertThat(bugs.get(0).getStatus()).isEqualTo("NEW");
+        assertThat(bugs.get(0).getLastChangeTime()).isInstanceOf(Date.class);
+        assertThat(bugs.get(0).getKeywords()).containsExactly("Triaged");
+        // The flag struct must not be mistaken for a bug
+        assertThat(bugs.get(0).getFlags()).hasSize(1);
+        assertThat(bugs.get(1).getId()).isEqualTo("1234568");
+        assertThat(bugs.get(1).getFlags()).isEmpty();
+    }
+
+    @Test
+    public void truncatedResponseFails() throws Exception {
+        bugResponse = BUGS_RESPONSE.substring(0, BUGS_RESPONSE.indexOf(BUG_2) + BUG_2.length() / 2);
+        List<BugProxy> bugs = new ArrayList<>();
+
+        Throwable thrown = catchThrowable(() -> client.getBugs(Arrays.asList("1234567", "1234568"), bugs::add));
+
+        assertThat(thrown).isInstanceOf(BugzillaCallException.class);
+        assertThat(((BugzillaCallException) thrown).isFault()).isFalse();
+        // The bug decoded before the failure was already handed over
+        assertThat(bugs).extracting(BugProxy::getId).containsExactly("1234567");
+    }
+
+    @Test
+    public void responseWithoutBugsFails() throws Exception {
+        bugResponse = NO_BUGS_RESPONSE;
+
+        Throwable thrown = catchThrowable(() -> client.getBugs(Arrays.asList("1234567"), bug -> { }));
+
+        assertThat(thrown).isInstanceOf(BugzillaCallException.class);
+    }
+
+    @Test
+    public void faultIsReported() throws Exception {
+        bugResponse = FAULT_RESPONSE;
+
+        Throwable thrown = catchThrowable(() -> client.getBugs(Arrays.asList("1234567"), bug -> { }));
+
+        assertThat(thrown).isInstanceOf(BugzillaCallException.class);
+        assertThat(((BugzillaCallException) thrown).isFault()).isTrue();
+        assertThat(((BugzillaCallException) thrown).getFaultCode()).isEqualTo(102);
+    }
+}
@@ -0,0 +1,108 @@
+package org.marsik.bugautomation.bugzilla;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BugzillaSyncJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void missingJournal() throws Exception {
+        BugzillaSyncJournal journal = new BugzillaSyncJournal(folder.getRoot().toPath().resolve("missing"));
+        assertThat(journal.load())
+                .isEmpty();
+    }
+
+    @Test
+    public void laterEntriesWin() throws Exception {
+        BugzillaSyncJournal journal = new BugzillaSyncJournal(folder.newFile().toPath());
+        journal.append(Arrays.asList(snapshot("1", 10), snapshot("2", 20)));
+        journal.append(Collections.singletonList(snapshot("1", 30)));
+        journal.close();
+
+        Map<String, BugzillaBugSnapshot> snapshots = journal.load();
+        assertThat(snapshots)
+                .containsOnlyKeys("1", "2");
+        assertThat(snapshots.get("1").getLastChangeTime())
+                .isEqualTo(30);
+    }
+
+    @Test
+    public void removedEntries() throws Exception {
+        BugzillaSyncJournal journal = new BugzillaSyncJournal(folder.newFile().toPath());
+        journal.append(Arrays.asList(snapshot("1", 10), snapshot("2", 20)));
+        journal.remove(Collections.singletonList("2"));
+        journal.close();
+
+        assertThat(journal.load())
+                .containsOnlyKeys("1");
+    }
+
+    @Test
+    public void compact() throws Exception {
+        Path path = folder.newFile().toPath();
+        BugzillaSyncJournal journal = new BugzillaSyncJournal(path);
+        journal.append(Arrays.asList(snapshot("1", 10), snapshot("2", 20)));
+        journal.append(Collections.singletonList(snapshot("1", 30)));
+        journal.remove(Collections.singletonList("2"));
+        journal.compact();
+
+        assertThat(Files.readAllLines(path))
+                .hasSize(1);
+        assertThat(journal.load().get("1").getLastChangeTime())
+                .isEqualTo(30);
+    }
+
+    @Test
+    public void corruptedLine() throws Exception {
+        Path path = folder.newFile().toPath();
+        BugzillaSyncJournal journal = new BugzillaSyncJournal(path);
+        journal.append(Collections.singletonList(snapshot("1", 10)));
+        journal.close();
+        Files.write(path, "{\"id\":\"2\",\"bug\":{".getBytes(), StandardOpenOption.APPEND);
+
+        assertThat(journal.load())
+                .containsOnlyKeys("1");
+    }
+
+    @Test
+    public void entryWithMissingFields() throws Exception {
+        Path path = folder.newFile().toPath();
+        BugzillaSyncJournal journal = new BugzillaSyncJournal(path);
+        journal.append(Arrays.asList(snapshot("1", 10), snapshot("2", 20)));
+        journal.close();
+        Files.write(path, "{\"id\":\"2\",\"bug\":{\"id\":\"2\",\"lastChangeTime\":30}}\n".getBytes(),
+                StandardOpenOption.APPEND);
+
+        assertThat(journal.load())
+                .containsOnlyKeys("1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSnapshot() throws Exception {
+        BugzillaBugSnapshot snapshot = snapshot("1", 10);
+        snapshot.setPriority(null);
+        snapshot.validate();
+    }
+
+    private BugzillaBugSnapshot snapshot(String id, long lastChange) {
+        BugzillaBugSnapshot snapshot = new BugzillaBugSnapshot();
+        snapshot.setId(id);
+        snapshot.setLastChangeTime(lastChange);
+        snapshot.setStatus("NEW");
+        snapshot.setPriority("HIGH");
+        snapshot.setSeverity("MEDIUM");
+        return snapshot;
+    }
+}
@@ -0,0 +1,53 @@
+package org.marsik.bugautomation.facts;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class BugzillaBugFlagTest {
+    @Test
+    public void parse() throws Exception {
+        BugzillaBugFlag flag = new BugzillaBugFlag("rhevm-4.1.z+");
+        assertThat(flag.getName()).isEqualTo("rhevm-4.1.z");
+        assertThat(flag.getStatus()).isEqualTo('+');
+        assertThat(flag.getProduct()).isEqualTo("rhevm");
+        assertThat(flag.getVersion()).isEqualTo("4.1");
+        assertThat(flag.getStream()).isEqualTo(BugzillaBugFlag.Stream.Z);
+
+        flag = new BugzillaBugFlag("ovirt-4.2-ga?");
+        assertThat(flag.getVersion()).isEqualTo("4.2");
+        assertThat(flag.getStream()).isEqualTo(BugzillaBugFlag.Stream.GA);
+
+        flag = new BugzillaBugFlag("blocker");
+        assertThat(flag.getName()).isEqualTo("blocker");
+        assertThat(flag.getStatus()).isEqualTo((char) 0);
+        assertThat(flag.getVersion()).isNull();
+    }
+
+    @Test
+    public void approves() throws Exception {
+        for (String flag : new String[] { "ovirt-4.1.3+", "rhevm-4.1.3+", "ovirt-4.1.z+", "rhevm-4.1.z+",
+                "ovirt-4.1+", "rhevm-4.1+", "ovirt-4.1-ga+", "rhevm-4.1-ga+" }) {
+            assertThat(new BugzillaBugFlag(flag).approves("ovirt-4.1.3"))
+                    .as(flag)
+                    .isTrue();
+        }
+
+        for (String flag : new String[] { "ovirt-4.1.3?", "ovirt-4.1.3-", "ovirt-4.1.2+", "ovirt-4.2.z+",
+                "ovirt-4.1.3", "blocker+", "ovirt-future+" }) {
+            assertThat(new BugzillaBugFlag(flag).approves("ovirt-4.1.3"))
+                    .as(flag)
+                    .isFalse();
+        }
+
+        assertThat(new BugzillaBugFlag("ovirt-4.1.3+").approves(null)).isFalse();
+    }
+
+    @Test
+    public void futureFlag() throws Exception {
+        assertThat(new BugzillaBugFlag("ovirt-future?").futureFlag()).isTrue();
+        assertThat(new BugzillaBugFlag("rhevm-future+").futureFlag()).isTrue();
+        assertThat(new BugzillaBugFlag("ovirt-future-").futureFlag()).isFalse();
+        assertThat(new BugzillaBugFlag("ovirt-4.1.z?").futureFlag()).isFalse();
+    }
+}
@@ -0,0 +1,29 @@
+package org.marsik.bugautomation.hystrix;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ConnectorCommandTest {
+    @Test
+    public void result() throws Exception {
+        assertThat(ConnectorCommand.call(Connector.GERRIT, "test", () -> "ok"))
+                .isEqualTo("ok");
+    }
+
+    @Test(expected = IOException.class)
+    public void failure() throws Exception {
+        ConnectorCommand.call(Connector.GERRIT, "test", () -> {
+            throw new IOException("down");
+        });
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void badRequest() throws Exception {
+        ConnectorCommand.call(Connector.GERRIT, "test", () -> {
+            throw ConnectorCommand.badRequest(new IllegalStateException("not found"));
+        });
+    }
+}
@@ -0,0 +1,71 @@
+package org.marsik.bugautomation.hystrix;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+public class HystrixInterceptorTest {
+    private static final byte[] BODY = "[{\"id\":1},{\"id\":2}]".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+    private String base;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/complete", exchange -> {
+            exchange.sendResponseHeaders(200, BODY.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(BODY);
+            }
+        });
+        server.createContext("/truncated", exchange -> {
+            // Announce the whole body, but send only a part of it
+            exchange.sendResponseHeaders(200, BODY.length);
+            exchange.getResponseBody().write(BODY, 0, BODY.length / 2);
+            exchange.getResponseBody().flush();
+            exchange.close();
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        client = new OkHttpClient.Builder()
+                .addInterceptor(new HystrixInterceptor(Connector.GITHUB))
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void bodyIsBuffered() throws Exception {
+        Response response = client.newCall(new Request.Builder().url(base + "/complete").build()).execute();
+
+        assertThat(response.body().contentLength()).isEqualTo(BODY.length);
+        assertThat(response.body().bytes()).isEqualTo(BODY);
+    }
+
+    @Test
+    public void truncatedBodyFailsTheCall() throws Exception {
+        Throwable thrown = catchThrowable(() ->
+                client.newCall(new Request.Builder().url(base + "/truncated").build()).execute());
+
+        assertThat(thrown).isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,146 @@
+package org.marsik.bugautomation.jobs;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.marsik.bugautomation.facts.GerritReview;
+import org.marsik.bugautomation.gerrit.GerritChange;
+import org.marsik.bugautomation.gerrit.GerritClient;
+import org.marsik.bugautomation.gerrit.GerritCommit;
+import org.marsik.bugautomation.gerrit.GerritRevision;
+import org.marsik.bugautomation.services.BugMatchingService;
+import org.marsik.bugautomation.services.ConfigurationService;
+import org.marsik.bugautomation.services.FactService;
+import org.marsik.bugautomation.services.RuleGlobalsService;
+import org.marsik.bugautomation.services.StatsService;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+public class GerritRefreshJobTest {
+    @Mock
+    FactService factService;
+
+    @Mock
+    ConfigurationService configurationService;
+
+    @Mock
+    RuleGlobalsService ruleGlobalsService;
+
+    @Mock
+    StatsService statsService;
+
+    @Mock
+    GerritClient gerritClient;
+
+    @Spy
+    BugMatchingService bugMatchingService = new BugMatchingService();
+
+    @InjectMocks
+    GerritRefreshJob gerritRefreshJob;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(configurationService.get(ConfigurationService.GERRIT_QUERY)).thenReturn(Optional.of("project:vdsm"));
+        when(configurationService.getCachedInt(eq(ConfigurationService.GERRIT_RECONCILE_INTERVAL), anyInt()))
+                .thenReturn(3600);
+        when(ruleGlobalsService.getGerritReviews()).thenReturn(Collections.emptyList());
+    }
+
+    private static GerritChange change(int number, String status, String updated) {
+        GerritChange change = new GerritChange();
+        change.setId("vdsm~master~I" + number);
+        change.setNumber(number);
+        change.setProject("vdsm");
+        change.setStatus(status);
+        change.setSubject("Change " + number);
+        change.setUpdated(Instant.parse(updated));
+        return change;
+    }
+
+    @Test
+    public void pagesThroughMoreChanges() throws Exception {
+        GerritChange first = change(1, "NEW", "2016-10-01T10:00:00Z");
+        GerritChange second = change(2, "NEW", "2016-10-02T10:00:00Z");
+        second.setMoreChanges(true);
+        GerritChange third = change(3, "NEW", "2016-10-03T10:00:00Z");
+
+        when(gerritClient.queryChanges(anyString(), anyInt(), eq(0), anyListOf(String.class)))
+                .thenReturn(Arrays.asList(first, second));
+        when(gerritClient.queryChanges(anyString(), anyInt(), eq(2), anyListOf(String.class)))
+                .thenReturn(Collections.singletonList(third));
+
+        assertThat(gerritRefreshJob.queryAll("status:open"))
+                .containsExactly(first, second, third);
+    }
+
+    @Test
+    public void deltaUsesHighWaterMarkAndForgetsMergedChanges() throws Exception {
+        GerritChange open = change(1, "NEW", "2016-10-01T10:00:00Z");
+        when(gerritClient.queryChanges(eq("status:open (project:vdsm)"), anyInt(), eq(0), anyListOf(String.class)))
+                .thenReturn(Collections.singletonList(open));
+
+        gerritRefreshJob.run();
+        verify(factService).addOrUpdateFacts(anyCollection());
+
+        GerritReview known = GerritReview.builder()
+                .id(open.getId())
+                .updated(open.getUpdated())
+                .build();
+        when(ruleGlobalsService.getGerritReviews()).thenReturn(Collections.singletonList(known));
+        when(gerritClient.queryChanges(startsWith("(project:vdsm) after:\"2016-10-01 10:00:00.000 +0000\""),
+                anyInt(), eq(0), anyListOf(String.class)))
+                .thenReturn(Collections.singletonList(change(1, "MERGED", "2016-10-05T10:00:00Z")));
+
+        gerritRefreshJob.run();
+        verify(factService).removeFact(known);
+    }
+
+    @Test
+    public void unchangedReviewIsNotUpdated() throws Exception {
+        GerritChange open = change(1, "NEW", "2016-10-01T10:00:00Z");
+        GerritReview known = GerritReview.builder()
+                .id(open.getId())
+                .updated(open.getUpdated())
+                .build();
+        when(ruleGlobalsService.getGerritReviews()).thenReturn(Collections.singletonList(known));
+        when(gerritClient.queryChanges(anyString(), anyInt(), eq(0), anyListOf(String.class)))
+                .thenReturn(Collections.singletonList(open));
+
+        gerritRefreshJob.run();
+
+        verify(factService, never()).addOrUpdateFacts(anyCollection());
+        verify(factService, never()).removeFact(known);
+    }
+
+    @Test
+    public void bugFromBugUrlFooter() throws Exception {
+        GerritChange change = change(1, "NEW", "2016-10-01T10:00:00Z");
+        GerritCommit commit = new GerritCommit();
+        commit.setMessage("Fix the thing\n\nChange-Id: I1\nBug-Url: https://bugzilla.redhat.com/1378310\n");
+        GerritRevision revision = new GerritRevision();
+        revision.setCommit(commit);
+        change.setCurrentRevision("abcdef");
+        change.setRevisions(Collections.singletonMap("abcdef", revision));
+
+        assertThat(gerritRefreshJob.identifyBug(change))
+                .contains(bugMatchingService.getBugByBzId("1378310"));
+    }
+}
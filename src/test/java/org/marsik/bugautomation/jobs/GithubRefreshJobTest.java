@@ -0,0 +1,206 @@
+package org.marsik.bugautomation.jobs;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.marsik.bugautomation.facts.Bug;
+import org.marsik.bugautomation.facts.GithubIssue;
+import org.marsik.bugautomation.github.Issue;
+import org.marsik.bugautomation.services.FactService;
+import org.marsik.bugautomation.services.RuleGlobalsService;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.HttpUrl;
+
+public class GithubRefreshJobTest {
+    @Mock
+    FactService factService;
+
+    @Mock
+    RuleGlobalsService ruleGlobalsService;
+
+    @InjectMocks
+    GithubRefreshJob githubRefreshJob;
+
+    private final GithubRefreshJob.Repo repo = new GithubRefreshJob.Repo("oVirt", "ovirt-engine");
+
+    private HttpServer server;
+    private String base;
+    // If-None-Match values seen by the server, null for unconditional requests
+    private final List<String> conditions = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/repos/oVirt/ovirt-engine/issues", exchange -> {
+            String query = exchange.getRequestURI().getQuery();
+            if (query.contains("since=")) {
+                respond(exchange, "\"delta\"", "[" + issueJson(3) + "]", null);
+            } else if (query.contains("page=2")) {
+                respond(exchange, "\"page2\"", "[" + issueJson(2) + "]", null);
+            } else {
+                respond(exchange, "\"page1\"", "[" + issueJson(1) + "]",
+                        "<" + base + "repos/oVirt/ovirt-engine/issues?per_page=1&page=2>; rel=\"next\"");
+            }
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private void respond(HttpExchange exchange, String etag, String body, String link) throws IOException {
+        String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+        conditions.add(String.valueOf(condition));
+
+        exchange.getResponseHeaders().add("ETag", etag);
+        if (etag.equals(condition)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        if (link != null) {
+            exchange.getResponseHeaders().add("Link", link);
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String issueJson(int number) {
+        return "{\"id\":" + (100 + number) + ",\"number\":" + number + ",\"title\":\"Issue " + number
+                + "\",\"state\":\"open\",\"assignees\":[],\"updated_at\":\"2017-01-0" + number + "T10:00:00Z\"}";
+    }
+
+    private static GithubIssue issue(String owner, String repo, int id, String title) {
+        return GithubIssue.builder()
+                .id(id)
+                .uid("github-" + owner + repo + id)
+                .bug(new Bug("github-" + owner + repo + id))
+                .title(title)
+                .repoOwner(owner)
+                .repo(repo)
+                .build();
+    }
+
+    private static Map<String, GithubIssue> retrieved(GithubIssue... issues) {
+        Map<String, GithubIssue> map = new HashMap<>();
+        for (GithubIssue issue: issues) {
+            map.put(issue.getUid(), issue);
+        }
+        return map;
+    }
+
+    @Test
+    public void unchangedIssuesProduceNoFactOperations() throws Exception {
+        GithubIssue known = issue("oVirt", "ovirt-engine", 1, "Title");
+        when(ruleGlobalsService.getGithubIssues()).thenReturn(Collections.singletonList(known));
+
+        githubRefreshJob.syncPartition(repo, retrieved(issue("oVirt", "ovirt-engine", 1, "Title")));
+
+        verify(factService, never()).addOrUpdateFacts(anyCollection());
+        verify(factService, never()).removeFact(known);
+    }
+
+    @Test
+    public void changedIssueIsUpdated() throws Exception {
+        GithubIssue known = issue("oVirt", "ovirt-engine", 1, "Title");
+        GithubIssue updated = issue("oVirt", "ovirt-engine", 1, "New title");
+        when(ruleGlobalsService.getGithubIssues()).thenReturn(Collections.singletonList(known));
+
+        githubRefreshJob.syncPartition(repo, retrieved(updated));
+
+        verify(factService).addOrUpdateFacts(Collections.singletonList(updated));
+    }
+
+    @Test
+    public void removalIsScopedToPartition() throws Exception {
+        GithubIssue gone = issue("oVirt", "ovirt-engine", 1, "Title");
+        GithubIssue other = issue("oVirt", "vdsm", 2, "Other repo");
+        when(ruleGlobalsService.getGithubIssues()).thenReturn(Arrays.asList(gone, other));
+
+        githubRefreshJob.syncPartition(repo, retrieved());
+
+        verify(factService).removeFact(gone);
+        verify(factService, never()).removeFact(other);
+    }
+
+    @Test
+    public void deltaOnlyForgetsClosedIssues() throws Exception {
+        GithubIssue closed = issue("oVirt", "ovirt-engine", 1, "Closed");
+        GithubIssue untouched = issue("oVirt", "ovirt-engine", 2, "Not in the delta");
+        when(ruleGlobalsService.getGithubIssues()).thenReturn(Arrays.asList(closed, untouched));
+
+        githubRefreshJob.syncPartition(repo, retrieved(), i -> i.getUid().equals(closed.getUid()));
+
+        verify(factService).removeFact(closed);
+        verify(factService, never()).removeFact(untouched);
+        verify(factService, never()).addOrUpdateFacts(anyCollection());
+    }
+
+    @Test
+    public void nextLinkFromHeader() throws Exception {
+        String header = "<https://api.github.com/repositories/1/issues?per_page=100&page=2>; rel=\"next\", "
+                + "<https://api.github.com/repositories/1/issues?per_page=100&page=5>; rel=\"last\"";
+        assertThat(GithubRefreshJob.nextLink(header))
+                .isEqualTo("https://api.github.com/repositories/1/issues?per_page=100&page=2");
+    }
+
+    @Test
+    public void noNextLinkOnLastPage() throws Exception {
+        String header = "<https://api.github.com/repositories/1/issues?per_page=100&page=1>; rel=\"first\", "
+                + "<https://api.github.com/repositories/1/issues?per_page=100&page=4>; rel=\"prev\"";
+        assertThat(GithubRefreshJob.nextLink(header)).isNull();
+        assertThat(GithubRefreshJob.nextLink(null)).isNull();
+    }
+
+    @Test
+    public void unchangedPagesAreServedFromCache() throws Exception {
+        HttpUrl snapshot = HttpUrl.parse(base + "repos/oVirt/ovirt-engine/issues?per_page=1");
+        HttpUrl delta = HttpUrl.parse(base + "repos/oVirt/ovirt-engine/issues?per_page=1&state=all&since=2017");
+
+        List<Issue> first = githubRefreshJob.fetchIssues(repo, "test", snapshot, true).get();
+        assertThat(first).extracting(Issue::getNumber).containsExactly(1, 2);
+        assertThat(conditions).containsExactly("null", "null");
+
+        conditions.clear();
+        githubRefreshJob.fetchIssues(repo, "test", delta, false).get();
+        githubRefreshJob.fetchIssues(repo, "test", delta, false).get();
+        assertThat(conditions).containsExactly("null", "\"delta\"");
+
+        // The deltas must not evict the pages of the full listing
+        conditions.clear();
+        List<Issue> second = githubRefreshJob.fetchIssues(repo, "test", snapshot, true).get();
+        assertThat(conditions).containsExactly("\"page1\"", "\"page2\"");
+        assertThat(second).extracting(Issue::getNumber).containsExactly(1, 2);
+    }
+}
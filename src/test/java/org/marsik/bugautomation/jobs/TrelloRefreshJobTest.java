@@ -1,25 +1,377 @@
 package org.marsik.bugautomation.jobs;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
 
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.Before;
 import org.junit.Test;
+import org.marsik.bugautomation.facts.TrelloBoard;
+import org.marsik.bugautomation.facts.TrelloCard;
+import org.marsik.bugautomation.facts.User;
+import org.marsik.bugautomation.services.BugMatchingService;
 import org.marsik.bugautomation.services.ConfigurationService;
+import org.marsik.bugautomation.services.FactService;
+import org.marsik.bugautomation.services.RuleGlobalsService;
+import org.marsik.bugautomation.services.StatsService;
+import org.marsik.bugautomation.services.TrelloActionsImpl;
+import org.marsik.bugautomation.services.TrelloBoardCache;
+import org.marsik.bugautomation.services.TrelloRefetchService;
+import org.marsik.bugautomation.services.UserMatchingService;
+import org.marsik.bugautomation.stats.LabelValue;
+import org.marsik.bugautomation.stats.SingleStat;
+import org.marsik.bugautomation.trello.Action;
+import org.marsik.bugautomation.trello.TrelloClient;
+import org.marsik.bugautomation.trello.TrelloClientBuilder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
 
 public class TrelloRefreshJobTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     @Mock
     ConfigurationService configurationService;
 
+    @Mock
+    FactService factService;
+
+    @Mock
+    UserMatchingService userMatchingService;
+
+    @Mock
+    TrelloActionsImpl trelloActions;
+
+    @Mock
+    RuleGlobalsService ruleGlobalsService;
+
+    @Mock
+    TrelloBoardCache trelloBoardCache;
+
+    @Spy
+    BugMatchingService bugMatchingService = new BugMatchingService();
+
+    @Spy
+    StatsService statsService = new StatsService();
+
+    @Spy
+    TrelloRefetchService trelloRefetchService = new TrelloRefetchService();
+
+    @InjectMocks
+    TrelloRefreshJob trelloRefreshJob;
+
+    private TrelloClient trello;
+
+    // What the fake trello serves for board b1
+    private String boardName = "Sprint";
+    private final List<String> members = new ArrayList<>();
+    private String latestAction = "a1";
+    private final List<String> deltaActions = new ArrayList<>();
+    // Card id -> card json, null for a deleted card
+    private final Map<String, String> cards = new HashMap<>();
+    private Runnable onDelta = () -> { };
+
+    // Decoded urls of the batch sub-requests
+    private final List<String> requested = new CopyOnWriteArrayList<>();
+
     @Before
-    public void setUp() {
+    public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
         when(configurationService.getCached("release.future.prefix")).thenReturn("ovirt-4.1.");
         when(configurationService.getCached("release.future.release")).thenReturn("ovirt-4.1.0");
+        when(configurationService.get(anyString())).thenReturn(Optional.empty());
+        when(configurationService.getMonitoredBoards()).thenReturn(Collections.singletonList("b1"));
+        when(configurationService.getCachedInt(eq(ConfigurationService.TRELLO_RECONCILE_INTERVAL), anyInt()))
+                .thenReturn(3600);
+        when(userMatchingService.getByTrello(anyString())).thenReturn(Optional.empty());
+        when(ruleGlobalsService.getTrelloCards()).thenReturn(Collections.emptyList());
+
+        trello = mock(TrelloClient.class);
+        when(trello.batch(anyString())).then(this::batch);
+        final TrelloClientBuilder builder = mock(TrelloClientBuilder.class);
+        when(builder.connectionPoolSize(anyInt())).thenReturn(builder);
+        when(builder.responseSizeCounter(any())).thenReturn(builder);
+        when(builder.build()).thenReturn(trello);
+        when(trelloActions.getTrello()).thenReturn(builder);
+
+        cards.put("c1", card("c1", "l1", "b1", "2017-01-01T10:00:00.000Z"));
+    }
+
+    private List<JsonNode> batch(InvocationOnMock invocation) throws Exception {
+        final List<JsonNode> responses = new ArrayList<>();
+        for (String encoded: ((String) invocation.getArguments()[0]).split(",")) {
+            final String url = URLDecoder.decode(encoded, "UTF-8");
+            requested.add(url);
+            final String body = respond(url);
+            responses.add(MAPPER.readTree(body != null
+                    ? "{\"200\":" + body + "}"
+                    : "{\"name\":\"NotFound\",\"message\":\"not found\",\"statusCode\":404}"));
+        }
+        return responses;
+    }
+
+    private String respond(String url) {
+        if (url.startsWith("/boards/b1/actions?limit=1000")) {
+            onDelta.run();
+            return "[" + String.join(",", deltaActions) + "]";
+        } else if (url.startsWith("/boards/b1/actions?limit=1")) {
+            return "[{\"id\":\"" + latestAction + "\",\"type\":\"updateCard\"}]";
+        } else if (url.startsWith("/boards/b1/actions?filter=")) {
+            return "[]";
+        } else if (url.startsWith("/boards/b1?")) {
+            return "{\"id\":\"b1\",\"name\":\"" + boardName + "\""
+                    + ",\"lists\":[{\"id\":\"l1\",\"name\":\"Backlog\",\"idBoard\":\"b1\"}]"
+                    + ",\"cards\":[" + cards.values().stream()
+                            .filter(c -> c != null && c.contains("\"idBoard\":\"b1\""))
+                            .collect(Collectors.joining(",")) + "]"
+                    + ",\"members\":[" + members.stream()
+                            .map(m -> "{\"id\":\"" + m + "\",\"username\":\"" + m + "\"}")
+                            .collect(Collectors.joining(",")) + "]"
+                    + ",\"labels\":[]}";
+        } else if (url.startsWith("/cards/")) {
+            return cards.get(url.substring("/cards/".length(), url.indexOf('?')));
+        }
+        throw new IllegalArgumentException(url);
+    }
+
+    private static String card(String id, String list, String board, String activity) {
+        return "{\"id\":\"" + id + "\",\"name\":\"Card " + id + "\",\"desc\":\"\""
+                + ",\"idList\":\"" + list + "\",\"idBoard\":\"" + board + "\""
+                + ",\"idMembers\":[],\"labels\":[],\"pos\":1.0,\"closed\":false"
+                + ",\"dateLastActivity\":\"" + activity + "\"}";
+    }
+
+    private static String cardAction(String id, String cardId) {
+        return "{\"id\":\"" + id + "\",\"type\":\"updateCard\",\"data\":{\"card\":{\"id\":\"" + cardId + "\"}}}";
+    }
+
+    private boolean snapshotTaken() {
+        return requested.stream().anyMatch(url -> url.startsWith("/boards/b1?"));
+    }
+
+    private List<Object> facts() {
+        final ArgumentCaptor<Object> facts = ArgumentCaptor.forClass(Object.class);
+        verify(factService, atLeast(0)).addOrUpdateFact(facts.capture());
+        return facts.getAllValues();
+    }
+
+    private List<TrelloBoard> boardFacts() {
+        return facts().stream()
+                .filter(f -> f instanceof TrelloBoard)
+                .map(f -> (TrelloBoard) f)
+                .collect(Collectors.toList());
+    }
+
+    private List<String> cardFacts() {
+        return facts().stream()
+                .filter(f -> f instanceof TrelloCard)
+                .map(f -> ((TrelloCard) f).getId())
+                .collect(Collectors.toList());
+    }
+
+    private double boardUpdates(String result) {
+        return statsService.getStats().getValues().entrySet().stream()
+                .filter(e -> e.getKey().getStat() == SingleStat.TRELLO_BOARD_UPDATES)
+                .filter(e -> e.getKey().getLabels().contains(new LabelValue("result", result)))
+                .mapToDouble(Map.Entry::getValue)
+                .sum();
+    }
+
+    /**
+     * Take the first snapshot, the next run refreshes the board using the action feed.
+     */
+    private void snapshot() {
+        trelloRefreshJob.run();
+        assertThat(snapshotTaken()).isTrue();
+        requested.clear();
+    }
+
+    @Test
+    public void deltaReadsTouchedCards() throws Exception {
+        snapshot();
+        deltaActions.add(cardAction("a2", "c1"));
+        cards.put("c1", card("c1", "l1", "b1", "2017-01-02T10:00:00.000Z"));
+
+        trelloRefreshJob.run();
+
+        assertThat(snapshotTaken()).isFalse();
+        assertThat(requested.stream().anyMatch(url -> url.startsWith("/cards/c1?"))).isTrue();
+        assertThat(cardFacts()).containsExactly("c1", "c1");
+    }
+
+    @Test
+    public void fullActionPageTakesSnapshot() throws Exception {
+        snapshot();
+        for (int i = 0; i < 1000; i++) {
+            deltaActions.add(cardAction("a" + (2000 - i), "c1"));
+        }
+
+        trelloRefreshJob.run();
+
+        // Older actions might be missing, the card reads are skipped
+        assertThat(snapshotTaken()).isTrue();
+        assertThat(requested.stream().noneMatch(url -> url.startsWith("/cards/"))).isTrue();
+    }
+
+    @Test
+    public void nonCardActionTakesSnapshot() throws Exception {
+        snapshot();
+        deltaActions.add("{\"id\":\"a2\",\"type\":\"updateList\",\"data\":{}}");
+
+        trelloRefreshJob.run();
+
+        assertThat(snapshotTaken()).isTrue();
+    }
+
+    @Test
+    public void unknownListMarksBoardStale() throws Exception {
+        snapshot();
+        deltaActions.add(cardAction("a2", "c2"));
+        cards.put("c2", card("c2", "l9", "b1", "2017-01-02T10:00:00.000Z"));
+
+        trelloRefreshJob.run();
+
+        assertThat(snapshotTaken()).isFalse();
+        assertThat(cardFacts()).doesNotContain("c2");
+        verify(trelloBoardCache).invalidate("b1");
+
+        // The next run reads the new list with the board
+        requested.clear();
+        deltaActions.clear();
+        trelloRefreshJob.run();
+        assertThat(snapshotTaken()).isTrue();
+    }
+
+    @Test
+    public void movedAndDeletedCardsAreForgotten() throws Exception {
+        cards.put("c2", card("c2", "l1", "b1", "2017-01-01T10:00:00.000Z"));
+        snapshot();
+
+        final TrelloBoard board = boardFacts().get(0);
+        final List<TrelloCard> known = Arrays.asList("c1", "c2").stream()
+                .map(id -> TrelloCard.builder()
+                        .id(id)
+                        .board(board)
+                        .status("backlog")
+                        .pos(1.0)
+                        .assignedTo(new HashSet<>())
+                        .labels(new HashSet<>())
+                        .build())
+                .collect(Collectors.toList());
+        when(ruleGlobalsService.getTrelloCards()).thenReturn(known);
+
+        deltaActions.add(cardAction("a3", "c2"));
+        deltaActions.add(cardAction("a2", "c1"));
+        cards.put("c1", card("c1", "l1", "b2", "2017-01-02T10:00:00.000Z"));
+        cards.put("c2", null);
+
+        trelloRefreshJob.run();
+
+        assertThat(snapshotTaken()).isFalse();
+        verify(factService).removeFact(known.get(0));
+        verify(factService).removeFact(known.get(1));
+    }
+
+    @Test
+    public void webhookSnapshotDuringPrefetch() throws Exception {
+        snapshot();
+        deltaActions.add(cardAction("a2", "c1"));
+
+        // A webhook snapshot moves the board past the prefetched feed
+        final Action listChange = new Action();
+        listChange.setId("a3");
+        listChange.setType("updateList");
+        onDelta = () -> {
+            onDelta = () -> { };
+            latestAction = "a3";
+            try {
+                trelloRefreshJob.onWebhookAction("b1", listChange).get();
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+        };
+
+        trelloRefreshJob.run();
+
+        // The prefetched actions are older than the board state, read the feed again
+        verify(trello).getBoardActions("b1", "a3", 1000);
+        assertThat(requested.stream().noneMatch(url -> url.startsWith("/cards/"))).isTrue();
+    }
+
+    @Test
+    public void unchangedBoardIsNotUpdated() throws Exception {
+        when(configurationService.getCachedInt(eq(ConfigurationService.TRELLO_RECONCILE_INTERVAL), anyInt()))
+                .thenReturn(0);
+        snapshot();
+        trelloRefreshJob.run();
+
+        assertThat(snapshotTaken()).isTrue();
+        assertThat(boardFacts()).hasSize(1);
+        assertThat(boardUpdates("updated")).isEqualTo(1.0);
+        assertThat(boardUpdates("suppressed")).isEqualTo(1.0);
+    }
+
+    @Test
+    public void renamedBoardIsUpdatedInPlace() throws Exception {
+        when(configurationService.getCachedInt(eq(ConfigurationService.TRELLO_RECONCILE_INTERVAL), anyInt()))
+                .thenReturn(0);
+        snapshot();
+        boardName = "Renamed";
+        trelloRefreshJob.run();
+
+        final List<TrelloBoard> boards = boardFacts();
+        assertThat(boards).hasSize(2);
+        assertThat(boards.get(1)).isSameAs(boards.get(0));
+        assertThat(boards.get(1).getName()).isEqualTo("Renamed");
+        assertThat(boardUpdates("updated")).isEqualTo(2.0);
+        assertThat(boardUpdates("suppressed")).isEqualTo(0.0);
+    }
+
+    @Test
+    public void membershipChangeUpdatesBoardInPlace() throws Exception {
+        when(configurationService.getCachedInt(eq(ConfigurationService.TRELLO_RECONCILE_INTERVAL), anyInt()))
+                .thenReturn(0);
+        snapshot();
+
+        final User user = new User("test");
+        members.add("m1");
+        when(userMatchingService.getByTrello("m1")).thenReturn(Optional.of(user));
+        cards.put("c1", card("c1", "l1", "b1", "2017-01-02T10:00:00.000Z"));
+        trelloRefreshJob.run();
+
+        final List<TrelloBoard> boards = boardFacts();
+        assertThat(boards).hasSize(2);
+        assertThat(boards.get(1)).isSameAs(boards.get(0));
+        assertThat(boards.get(1).getMembers()).containsExactly(user);
+
+        // The cards keep pointing to the board fact the rules know
+        facts().stream()
+                .filter(f -> f instanceof TrelloCard)
+                .forEach(f -> assertThat(((TrelloCard) f).getBoard()).isSameAs(boards.get(0)));
+        assertThat(boardUpdates("updated")).isEqualTo(2.0);
     }
 
     @Test
@@ -0,0 +1,92 @@
+package org.marsik.bugautomation.rest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.ws.rs.core.Response;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.marsik.bugautomation.jobs.TrelloRefreshJob;
+import org.marsik.bugautomation.services.ConfigurationService;
+import org.marsik.bugautomation.trello.Action;
+import org.mockito.ArgumentMatcher;
+
+public class TrelloWebhookEndpointTest {
+    private static final String SECRET = "secret";
+    private static final String CALLBACK_URL = "https://bugs.example.com/trello/webhook";
+    private static final String BODY = "{\"model\":{\"id\":\"board1\",\"name\":\"Board\"},"
+            + "\"action\":{\"id\":\"action1\",\"type\":\"updateCard\",\"date\":\"2016-10-01T10:00:00.000Z\","
+            + "\"data\":{\"card\":{\"id\":\"card1\",\"name\":\"Card\"},\"old\":{\"idList\":\"list1\"}}}}";
+
+    private TrelloWebhookEndpoint endpoint;
+
+    @Before
+    public void setUp() {
+        endpoint = new TrelloWebhookEndpoint();
+        endpoint.configurationService = mock(ConfigurationService.class);
+        endpoint.trelloRefreshJob = mock(TrelloRefreshJob.class);
+
+        when(endpoint.configurationService.get(anyString())).thenReturn(Optional.empty());
+        when(endpoint.configurationService.get(ConfigurationService.TRELLO_SECRET)).thenReturn(Optional.of(SECRET));
+        when(endpoint.configurationService.get(ConfigurationService.TRELLO_WEBHOOK_URL))
+                .thenReturn(Optional.of(CALLBACK_URL));
+    }
+
+    /**
+     * Sign the callback the same way trello does.
+     */
+    private Response send(String secret, String body) {
+        return endpoint.callback(TrelloWebhookEndpoint.sign(secret, body + CALLBACK_URL), body);
+    }
+
+    @Test
+    public void testSignedCallback() throws Exception {
+        Response response = send(SECRET, BODY);
+        assertThat(response.getStatus()).isEqualTo(200);
+
+        verify(endpoint.trelloRefreshJob).onWebhookAction(eq("board1"), argThat(new ArgumentMatcher<Action>() {
+            @Override
+            public boolean matches(Object argument) {
+                Action action = (Action) argument;
+                return "action1".equals(action.getId())
+                        && "card1".equals(action.getData().getCard().getId());
+            }
+        }));
+    }
+
+    @Test
+    public void testInvalidSignature() throws Exception {
+        Response response = send("other", BODY);
+        assertThat(response.getStatus()).isEqualTo(401);
+        verify(endpoint.trelloRefreshJob, never()).onWebhookAction(anyString(), any(Action.class));
+    }
+
+    @Test
+    public void testMissingSignature() throws Exception {
+        Response response = endpoint.callback(null, BODY);
+        assertThat(response.getStatus()).isEqualTo(401);
+    }
+
+    @Test
+    public void testTamperedBody() throws Exception {
+        String signature = TrelloWebhookEndpoint.sign(SECRET, BODY + CALLBACK_URL);
+        Response response = endpoint.callback(signature, BODY.replace("card1", "card2"));
+        assertThat(response.getStatus()).isEqualTo(401);
+    }
+
+    @Test
+    public void testNotConfigured() throws Exception {
+        when(endpoint.configurationService.get(ConfigurationService.TRELLO_SECRET)).thenReturn(Optional.empty());
+        Response response = send(SECRET, BODY);
+        assertThat(response.getStatus()).isEqualTo(503);
+    }
+}
@@ -0,0 +1,188 @@
+package org.marsik.bugautomation.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.Before;
+import org.junit.Test;
+import org.marsik.bugautomation.bugzilla.BugzillaCallException;
+import org.marsik.bugautomation.bugzilla.BugzillaClient;
+import org.marsik.bugautomation.facts.BugzillaBug;
+import org.marsik.bugautomation.facts.User;
+import org.marsik.bugautomation.jobs.BugzillaRefreshJob;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+public class BugzillaActionsImplTest {
+    @Mock
+    BugzillaSessionService bugzillaSessionService;
+
+    @Mock
+    UserMatchingService userMatchingService;
+
+    @Mock
+    FactService factService;
+
+    @Mock
+    ConfigurationService configurationService;
+
+    @Mock
+    RuleGlobalsService ruleGlobalsService;
+
+    @Spy
+    StatsService statsService = new StatsService();
+
+    @Spy
+    BugzillaRefetchService bugzillaRefetchService = new BugzillaRefetchService();
+
+    @InjectMocks
+    BugzillaRefreshJob refreshJob;
+
+    private BugzillaActionsImpl actions;
+    private BugzillaClient client;
+    private User user = new User("test");
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        client = mock(BugzillaClient.class);
+        when(client.updateBugs(anyCollectionOf(String.class), anyMapOf(String.class, Object.class)))
+                .thenReturn(true);
+
+        actions = new BugzillaActionsImpl();
+        actions.bugzillaSessionService = bugzillaSessionService;
+        when(bugzillaSessionService.getSession()).thenReturn(Optional.of(client));
+        actions.userMatchingService = userMatchingService;
+        when(userMatchingService.getBugzilla(user)).thenReturn(Optional.of("test@example.com"));
+        actions.factService = factService;
+        actions.statsService = statsService;
+        actions.bugzillaRefetchService = bugzillaRefetchService;
+    }
+
+    @Test
+    public void groupedUpdate() throws Exception {
+        BugzillaBug one = bug("1");
+        BugzillaBug two = bug("2");
+
+        actions.assignTo(one, user);
+        actions.assignTo(two, user);
+        actions.assignTo(one, user);
+        actions.flush();
+
+        verify(client, timeout(5000)).updateBugs(
+                eq(Arrays.asList("1", "2")),
+                eq(Collections.singletonMap("assigned_to", "test@example.com")));
+        assertThat(one.getAssignedTo()).isEqualTo(user);
+    }
+
+    @Test
+    public void coalescedChanges() throws Exception {
+        BugzillaBug one = bug("1");
+        BugzillaBug two = bug("2");
+
+        actions.assignTo(one, user);
+        actions.setFlag(one, "blocker", "?");
+        actions.setFlag(one, "blocker", "+");
+        actions.assignTo(two, user);
+        actions.flush();
+
+        verify(client, timeout(5000)).updateBugs(eq(Collections.singletonList("2")), any(Map.class));
+        verify(client, timeout(5000)).updateBugs(eq(Collections.singletonList("1")), any(Map.class));
+        verify(client, times(2)).updateBugs(any(Collection.class), any(Map.class));
+        assertThat(one.getFlags()).extracting("flag").containsExactly("blocker+");
+    }
+
+    @Test
+    public void refusedBatchIsSplit() throws Exception {
+        when(client.updateBugs(anyCollectionOf(String.class), anyMapOf(String.class, Object.class)))
+                .thenAnswer(invocation -> {
+                    Collection<?> ids = (Collection<?>) invocation.getArguments()[0];
+                    if (ids.contains("2")) {
+                        throw new BugzillaCallException("Bug.update", new XmlRpcException(102, "Access denied"));
+                    }
+                    return true;
+                });
+
+        actions.assignTo(bug("1"), user);
+        actions.assignTo(bug("2"), user);
+        actions.assignTo(bug("3"), user);
+        actions.flush();
+
+        // Faults are not retried, the batch is bisected down to the refused bug
+        verify(client, timeout(5000)).updateBugs(eq(Collections.singletonList("3")), any(Map.class));
+        verify(client, times(1)).updateBugs(eq(Arrays.asList("1", "2", "3")), any(Map.class));
+        verify(client, times(1)).updateBugs(eq(Collections.singletonList("1")), any(Map.class));
+        verify(client, times(1)).updateBugs(eq(Arrays.asList("2", "3")), any(Map.class));
+        verify(client, times(1)).updateBugs(eq(Collections.singletonList("2")), any(Map.class));
+    }
+
+    @Test
+    public void rejectedChangeIsNotSplit() throws Exception {
+        when(client.updateBugs(anyCollectionOf(String.class), anyMapOf(String.class, Object.class)))
+                .thenThrow(new BugzillaCallException("Bug.update", new XmlRpcException(51, "Invalid user")));
+
+        actions.assignTo(bug("1"), user);
+        actions.assignTo(bug("2"), user);
+        actions.assignTo(bug("3"), user);
+        actions.flush();
+
+        // The assignee is invalid for every bug, splitting the batch would not help
+        verify(bugzillaRefetchService, timeout(5000)).refetch(Arrays.asList("1", "2", "3"));
+        verify(client, times(1)).updateBugs(any(Collection.class), any(Map.class));
+    }
+
+    @Test
+    public void refusedBugIsFetchedAgain() throws Exception {
+        when(client.updateBugs(anyCollectionOf(String.class), anyMapOf(String.class, Object.class)))
+                .thenThrow(new BugzillaCallException("Bug.update", new XmlRpcException(102, "Access denied")));
+        when(configurationService.get(anyString())).thenReturn(Optional.empty());
+        when(client.open()).thenReturn(true);
+        List<Collection<String>> fetched = new ArrayList<>();
+        doAnswer(invocation -> fetched.add(new ArrayList<>((Collection<String>) invocation.getArguments()[0])))
+                .when(client).getBugs(anyCollectionOf(String.class), any(Consumer.class));
+
+        BugzillaBug refused = bug("2");
+        actions.assignTo(refused, user);
+        actions.flush();
+        verify(bugzillaRefetchService, timeout(5000)).refetch(Collections.singletonList("2"));
+
+        // Bugzilla does not list the bug as changed, it is downloaded anyway
+        refreshJob.run();
+        assertThat(fetched).containsExactly(Collections.singletonList("2"));
+
+        refreshJob.run();
+        assertThat(fetched).hasSize(1);
+    }
+
+    private BugzillaBug bug(String id) {
+        return BugzillaBug.builder()
+                .id(id)
+                .uid("bz-" + id)
+                .flags(new HashSet<>())
+                .build();
+    }
+}
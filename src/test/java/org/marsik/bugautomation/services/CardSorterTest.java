@@ -0,0 +1,102 @@
+package org.marsik.bugautomation.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.marsik.bugautomation.facts.TrelloCard;
+
+public class CardSorterTest {
+    private static TrelloCard card(String id, double pos, Integer score) {
+        return TrelloCard.builder()
+                .id(id)
+                .pos(pos)
+                .score(score)
+                .build();
+    }
+
+    private static List<TrelloCard> apply(List<TrelloCard> cards, Map<TrelloCard, Double> moves) {
+        moves.forEach(TrelloCard::setPos);
+        List<TrelloCard> sorted = new ArrayList<>(cards);
+        sorted.sort((a, b) -> Double.compare(a.getPos(), b.getPos()));
+        return sorted;
+    }
+
+    @Test
+    public void testSorted() throws Exception {
+        List<TrelloCard> cards = Arrays.asList(card("a", 1, 300), card("b", 2, 200), card("c", 3, 100));
+        assertThat(CardSorter.reposition(cards, TrelloCard.BY_SCORE)).isEmpty();
+    }
+
+    @Test
+    public void testSingleMove() throws Exception {
+        TrelloCard top = card("e", 5, 500);
+        List<TrelloCard> cards = Arrays.asList(card("a", 1, 400), card("b", 2, 300), card("c", 3, 200),
+                card("d", 4, 100), top);
+
+        Map<TrelloCard, Double> moves = CardSorter.reposition(cards, TrelloCard.BY_SCORE);
+        assertThat(moves).containsOnlyKeys(top);
+        assertThat(apply(cards, moves)).extracting(TrelloCard::getId)
+                .containsExactly("e", "a", "b", "c", "d");
+    }
+
+    @Test
+    public void testMovesBetweenKeptCards() throws Exception {
+        List<TrelloCard> cards = Arrays.asList(card("a", 1, 100), card("b", 2, 500), card("c", 3, 400),
+                card("d", 4, 600), card("e", 5, 300), card("f", 6, 200));
+
+        Map<TrelloCard, Double> moves = CardSorter.reposition(cards, TrelloCard.BY_SCORE);
+        assertThat(moves).containsOnlyKeys(cards.get(0), cards.get(3));
+        assertThat(apply(cards, moves)).extracting(TrelloCard::getId)
+                .containsExactly("d", "b", "c", "e", "f", "a");
+    }
+
+    @Test
+    public void testReversed() throws Exception {
+        List<TrelloCard> cards = Arrays.asList(card("a", 1, 100), card("b", 2, 200), card("c", 3, 300),
+                card("d", 4, 400));
+
+        Map<TrelloCard, Double> moves = CardSorter.reposition(cards, TrelloCard.BY_SCORE);
+        assertThat(moves.size()).isEqualTo(3);
+        assertThat(apply(cards, moves)).extracting(TrelloCard::getId)
+                .containsExactly("d", "c", "b", "a");
+    }
+
+    @Test
+    public void testEqualScoresKeepOrder() throws Exception {
+        List<TrelloCard> cards = Arrays.asList(card("a", 1, 100), card("b", 2, 100), card("c", 3, null),
+                card("d", 4, 100));
+
+        Map<TrelloCard, Double> moves = CardSorter.reposition(cards, TrelloCard.BY_SCORE);
+        assertThat(moves).containsOnlyKeys(cards.get(3));
+        assertThat(apply(cards, moves)).extracting(TrelloCard::getId)
+                .containsExactly("a", "b", "d", "c");
+    }
+
+    @Test
+    public void testRenumberWithoutRoom() throws Exception {
+        // c has to go between a and b, but there is no double in between
+        List<TrelloCard> cards = Arrays.asList(card("a", 1.0, 300), card("b", Math.nextUp(1.0), 100),
+                card("c", 2, 200));
+
+        Map<TrelloCard, Double> moves = CardSorter.reposition(cards, TrelloCard.BY_SCORE);
+        assertThat(moves).hasSize(3);
+        assertThat(apply(cards, moves)).extracting(TrelloCard::getId)
+                .containsExactly("a", "c", "b");
+    }
+
+    @Test
+    public void testLongestIncreasing() throws Exception {
+        boolean[] keep = CardSorter.longestIncreasing(new double[] { 3, 1, 2, 5, 4, 6 });
+        int kept = 0;
+        for (boolean k: keep) {
+            kept += k ? 1 : 0;
+        }
+        assertThat(kept).isEqualTo(4);
+        assertThat(CardSorter.longestIncreasing(new double[0])).isEmpty();
+    }
+}
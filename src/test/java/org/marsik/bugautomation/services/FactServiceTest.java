@@ -898,7 +898,8 @@ public class FactServiceTest {
         assertThat(card2.getScore())
                 .isNotNull()
                 .isGreaterThan(card1.getScore());
-        verify(trelloActions).switchCards(card1, card2);
+        verify(trelloActions).sortColumn(board, TRELLO_BACKLOG, TrelloCard.BY_SCORE);
+        verify(trelloActions, never()).switchCards(card1, card2);
     }
 
     @Test
@@ -936,7 +937,7 @@ public class FactServiceTest {
         assertThat(card2.getScore())
                 .isNotNull()
                 .isGreaterThan(card1.getScore());
-        verify(trelloActions).switchCards(card1, card2);
+        verify(trelloActions).sortColumn(board, TRELLO_BACKLOG, TrelloCard.BY_SCORE);
         verify(trelloActions, never()).switchCards(card1, card3);
         verify(trelloActions, never()).switchCards(card2, card3);
     }
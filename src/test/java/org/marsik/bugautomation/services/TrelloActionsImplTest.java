@@ -0,0 +1,155 @@
+package org.marsik.bugautomation.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.ws.rs.InternalServerErrorException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.marsik.bugautomation.facts.TrelloBoard;
+import org.marsik.bugautomation.facts.TrelloCard;
+import org.marsik.bugautomation.facts.TrelloLabel;
+import org.marsik.bugautomation.facts.User;
+import org.marsik.bugautomation.trello.Label;
+import org.marsik.bugautomation.trello.TrelloClient;
+import org.marsik.bugautomation.trello.TrelloClientBuilder;
+import org.marsik.bugautomation.trello.TrelloList;
+
+public class TrelloActionsImplTest {
+    private TrelloActionsImpl actions;
+    private TrelloClient trello;
+    private TrelloBoard board;
+    private User user = new User("test");
+
+    @Before
+    public void setUp() {
+        trello = mock(TrelloClient.class);
+        final TrelloClientBuilder builder = mock(TrelloClientBuilder.class);
+        when(builder.build()).thenReturn(trello);
+
+        actions = new TrelloActionsImpl() {
+            @Override
+            public TrelloClientBuilder getTrello() {
+                return builder;
+            }
+        };
+        actions.factService = mock(FactService.class);
+        actions.statsService = new StatsService();
+        actions.userMatchingService = mock(UserMatchingService.class);
+        when(actions.userMatchingService.getTrello(user)).thenReturn(Optional.of("member1"));
+        actions.trelloBoardCache = mock(TrelloBoardCache.class);
+        actions.trelloRefetchService = new TrelloRefetchService();
+
+        board = TrelloBoard.builder()
+                .id("board")
+                .name("Sprint")
+                .members(new HashSet<>())
+                .build();
+
+        TrelloList done = new TrelloList();
+        done.setId("list2");
+        done.setName("Done");
+        when(actions.trelloBoardCache.findList(trello, "board", "done")).thenReturn(Optional.of(done));
+
+        Label blocked = new Label();
+        blocked.setId("label2");
+        blocked.setName("Blocked");
+        blocked.setColor("red");
+        when(actions.trelloBoardCache.findLabel(trello, "board", "blocked")).thenReturn(Optional.of(blocked));
+    }
+
+    private TrelloCard card(String id, double pos) {
+        TrelloCard card = TrelloCard.builder()
+                .id(id)
+                .board(board)
+                .status("backlog")
+                .pos(pos)
+                .assignedTo(new HashSet<>())
+                .labels(new HashSet<>())
+                .build();
+        card.getLabels().add(new TrelloLabel(board, "label1", "green", "ok"));
+        return card;
+    }
+
+    @Test
+    public void coalescedUpdate() throws Exception {
+        TrelloCard one = card("card1", 1.0);
+        TrelloCard two = card("card2", 2.0);
+
+        actions.moveCard(one, board, "done");
+        actions.assignLabelToCard(one, "blocked");
+        actions.switchCards(one, two);
+        actions.assignCard(one, user);
+
+        // Nothing is written before the flush
+        verify(trello, never()).updateCard(anyString(), anyMapOf(String.class, Object.class));
+        verify(actions.factService, never()).addOrUpdateFact(any());
+
+        actions.flush();
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("idList", "list2");
+        expected.put("pos", 2.0);
+        expected.put("idLabels", "label1,label2");
+        verify(trello).updateCard("card1", expected);
+        verify(trello).updateCard("card2", Collections.singletonMap("pos", 1.0));
+        verify(trello).assignCardToUser("card1", "member1");
+        verify(trello, times(2)).updateCard(anyString(), anyMapOf(String.class, Object.class));
+        verify(actions.factService, times(1)).addOrUpdateFact(one);
+        verify(actions.factService, times(1)).addOrUpdateFact(two);
+
+        assertThat(one.getStatus()).isEqualTo("done");
+        assertThat(one.getAssignedTo()).containsExactly(user);
+    }
+
+    @Test
+    public void switchOnlyOnce() throws Exception {
+        TrelloCard one = card("card1", 1.0);
+        TrelloCard two = card("card2", 2.0);
+
+        actions.switchCards(one, two);
+        actions.switchCards(one, two);
+        actions.flush();
+
+        assertThat(one.getPos()).isEqualTo(2.0);
+        assertThat(two.getPos()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void failedUpdateIsReadAgain() throws Exception {
+        TrelloCard one = card("card1", 1.0);
+        TrelloCard two = card("card2", 2.0);
+        when(trello.updateCard(eq("card1"), anyMapOf(String.class, Object.class)))
+                .thenThrow(new InternalServerErrorException());
+
+        actions.switchCards(one, two);
+        actions.flush();
+
+        // Trello never saw the new position, the refresh has to restore it
+        verify(actions.factService, never()).addOrUpdateFact(one);
+        verify(actions.factService).addOrUpdateFact(two);
+        assertThat(actions.trelloRefetchService.drain()).containsExactly(entry("card1", "board"));
+    }
+
+    @Test
+    public void flushEmpty() throws Exception {
+        actions.flush();
+        verify(trello, never()).updateCard(anyString(), anyMapOf(String.class, Object.class));
+        verify(actions.factService, never()).addOrUpdateFact(any());
+    }
+}
@@ -0,0 +1,81 @@
+package org.marsik.bugautomation.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.marsik.bugautomation.trello.Board;
+import org.marsik.bugautomation.trello.Label;
+import org.marsik.bugautomation.trello.TrelloClient;
+import org.marsik.bugautomation.trello.TrelloList;
+
+public class TrelloBoardCacheTest {
+    private TrelloBoardCache cache;
+    private TrelloClient trello;
+
+    @Before
+    public void setUp() {
+        cache = new TrelloBoardCache();
+        trello = mock(TrelloClient.class);
+
+        Board board = new Board();
+        board.setId("board");
+        board.setLists(Arrays.asList(list("l1", "Backlog", false), list("l2", "Done", true)));
+        board.setLabels(Collections.singletonList(label("a1", "Blocked")));
+        cache.update(board);
+    }
+
+    private static TrelloList list(String id, String name, boolean closed) {
+        TrelloList list = new TrelloList();
+        list.setId(id);
+        list.setName(name);
+        list.setClosed(closed);
+        return list;
+    }
+
+    private static Label label(String id, String name) {
+        Label label = new Label();
+        label.setId(id);
+        label.setName(name);
+        return label;
+    }
+
+    @Test
+    public void testCachedLookups() throws Exception {
+        assertThat(cache.findList(trello, "board", "backlog").map(TrelloList::getId)).contains("l1");
+        assertThat(cache.findLabel(trello, "board", "BLOCKED").map(Label::getId)).contains("a1");
+
+        verify(trello, never()).getListByBoard("board");
+        verify(trello, never()).getBoardLabels("board");
+    }
+
+    @Test
+    public void testMissReloads() throws Exception {
+        when(trello.getListByBoard("board")).thenReturn(Arrays.asList(list("l1", "Backlog", false),
+                list("l3", "Done", false)));
+
+        // The cached Done list is archived
+        assertThat(cache.findList(trello, "board", "done").map(TrelloList::getId)).contains("l3");
+        assertThat(cache.findList(trello, "board", "done").map(TrelloList::getId)).contains("l3");
+        verify(trello, times(1)).getListByBoard("board");
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        when(trello.getBoardLabels("board")).thenReturn(Collections.singletonList(label("a2", "Blocked")));
+        cache.invalidate("board");
+
+        assertThat(cache.findLabel(trello, "board", "blocked").map(Label::getId)).contains("a2");
+        assertThat(cache.findLabel(trello, "board", "missing")).isEqualTo(Optional.empty());
+        verify(trello, times(2)).getBoardLabels("board");
+    }
+}
@@ -0,0 +1,77 @@
+package org.marsik.bugautomation.trello;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class CardDescriptionTest {
+    // The regular expressions the scanner replaced
+    private static final Pattern GROUP_RE = Pattern.compile("\\{\\{ *(([a-zA-Z0-9]+[:=][a-zA-Z0-9@.:/_=?-]*) *)* *\\}\\}");
+    private static final Pattern FIELD_RE = Pattern.compile("([a-zA-Z0-9]+)[=:]([a-zA-Z0-9@.:/_=?-]*)");
+    private static final Pattern CLEAN_RE = Pattern.compile("\\{\\{[^}]*\\}\\}");
+
+    private static final String[] SAMPLES = {
+            "",
+            "Plain text",
+            "Test {{ id=5}} with values {{ bug=1234567 }}",
+            "{{}}{{ }}{{",
+            "{{ score=400   test:mail@admin.cz}} with suffix {{score2=300}}",
+            "{{ a:b:c d=e=f }}",
+            "{{{ id=1 }}} trailing",
+            "{ {{ x{ id=2 }} }",
+            "{{ id=3 } }} {{ id=4 }}",
+            "{{ not a field }} {{ id=5 }}",
+            "{{ id=6 bad }}",
+            "{{ id=7\tscore=8 }}",
+            "{{id=https://example.com/a?b=c_d-e}}",
+            "{{ =x }} {{ 9:}}",
+            "}} {{ id=10 }}}}",
+            "{{{{{{ id=11 }}",
+            "{{ a=1{{ b=2 }}",
+            "{{ x {{ id=12 }}",
+    };
+
+    private static Map<String, String> regexFields(String text) {
+        Map<String, String> values = new HashMap<>();
+        Matcher matcher = GROUP_RE.matcher(text);
+        while (matcher.find()) {
+            Matcher fieldsMatcher = FIELD_RE.matcher(matcher.group(0));
+            while (fieldsMatcher.find()) {
+                values.put(fieldsMatcher.group(1), fieldsMatcher.group(2));
+            }
+        }
+        return values;
+    }
+
+    @Test
+    public void testSameAsRegex() throws Exception {
+        for (String sample: SAMPLES) {
+            CardDescription description = CardDescription.scan(sample);
+            assertThat(description.getFields()).as(sample).isEqualTo(regexFields(sample));
+            assertThat(description.getClean()).as(sample).isEqualTo(CLEAN_RE.matcher(sample).replaceAll(" "));
+        }
+    }
+
+    @Test
+    public void testMemoised() throws Exception {
+        String text = "Cached {{ id=1 }}";
+        assertThat(CardDescription.parse(text)).isSameAs(CardDescription.parse(new String(text)));
+    }
+
+    @Test
+    public void testUnclosedIsLinear() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            text.append("{{ ");
+        }
+
+        CardDescription description = CardDescription.scan(text.toString());
+        assertThat(description.getFields()).isEmpty();
+        assertThat(description.getClean()).isEqualTo(text.toString());
+    }
+}
@@ -0,0 +1,183 @@
+package org.marsik.bugautomation.trello;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ServiceUnavailableException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.marsik.bugautomation.hystrix.Connector;
+import org.marsik.bugautomation.hystrix.ConnectorUnavailableException;
+import org.mockito.invocation.InvocationOnMock;
+
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+
+public class TrelloBatchTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private TrelloClient trello;
+    private TrelloBatch batch;
+
+    @Before
+    public void setUp() {
+        trello = mock(TrelloClient.class);
+        batch = new TrelloBatch(trello);
+    }
+
+    private static String urls(String... urls) {
+        return Arrays.stream(urls)
+                .map(TrelloBatch::encode)
+                .collect(Collectors.joining(","));
+    }
+
+    private static JsonNode json(String text) throws Exception {
+        return MAPPER.readTree(text);
+    }
+
+    /**
+     * Answer every /cards/{id} url with a card, or with the error encoded in the id.
+     */
+    private static List<JsonNode> answer(InvocationOnMock invocation) throws Exception {
+        final List<JsonNode> responses = new ArrayList<>();
+        for (String encoded: ((String) invocation.getArguments()[0]).split(",")) {
+            final String url = URLDecoder.decode(encoded, "UTF-8");
+            final String id = url.substring(url.lastIndexOf('/') + 1);
+            if (id.startsWith("missing")) {
+                responses.add(json("{\"name\":\"NotFound\",\"message\":\"card not found\",\"statusCode\":404}"));
+            } else {
+                responses.add(json("{\"200\":{\"id\":\"" + id + "\",\"name\":\"Card " + id + "\"}}"));
+            }
+        }
+        return responses;
+    }
+
+    @Test
+    public void testSplitIntoBatches() throws Exception {
+        when(trello.batch(anyString())).then(TrelloBatchTest::answer);
+
+        final List<TrelloBatch.Request<Card>> requests = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            requests.add(batch.get("/cards/c" + i, TrelloBatch.CARD));
+        }
+        batch.execute();
+
+        verify(trello, times(3)).batch(anyString());
+        for (int i = 0; i < 25; i++) {
+            assertThat(requests.get(i).get().getId()).isEqualTo("c" + i);
+        }
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testNotFound() throws Exception {
+        when(trello.batch(anyString())).then(TrelloBatchTest::answer);
+
+        final TrelloBatch.Request<Card> found = batch.get("/cards/c1", TrelloBatch.CARD);
+        final TrelloBatch.Request<Card> missing = batch.get("/cards/missing", TrelloBatch.CARD);
+        batch.execute();
+
+        // Client errors are not retried
+        verify(trello, times(1)).batch(anyString());
+        assertThat(found.get().getName()).isEqualTo("Card c1");
+        missing.get();
+    }
+
+    @Test
+    public void testRetryServerError() throws Exception {
+        when(trello.batch(urls("/cards/c1", "/cards/c2"))).thenReturn(Arrays.asList(
+                json("{\"200\":{\"id\":\"c1\"}}"),
+                json("{\"name\":\"Error\",\"message\":\"busy\",\"statusCode\":503}")));
+        when(trello.batch(urls("/cards/c2"))).thenReturn(Collections.singletonList(
+                json("{\"200\":{\"id\":\"c2\"}}")));
+
+        final TrelloBatch.Request<Card> one = batch.get("/cards/c1", TrelloBatch.CARD);
+        final TrelloBatch.Request<Card> two = batch.get("/cards/c2", TrelloBatch.CARD);
+        batch.execute();
+
+        assertThat(one.get().getId()).isEqualTo("c1");
+        assertThat(two.get().getId()).isEqualTo("c2");
+    }
+
+    @Test
+    public void testEncodeFieldLists() throws Exception {
+        assertThat(URLDecoder.decode(TrelloBatch.encode("/cards/c1?fields=name,desc&limit=1"), "UTF-8"))
+                .isEqualTo("/cards/c1?fields=name%2Cdesc&limit=1");
+        assertThat(TrelloBatch.encode("/cards/c1?fields=name,desc")).doesNotContain(",");
+    }
+
+    @Test
+    public void testSplitFailedBatch() throws Exception {
+        when(trello.batch(urls("/cards/c1", "/cards/bad"))).thenThrow(new BadRequestException());
+        when(trello.batch(urls("/cards/c1"))).then(TrelloBatchTest::answer);
+        when(trello.batch(urls("/cards/bad"))).thenThrow(new BadRequestException());
+
+        final TrelloBatch.Request<Card> one = batch.get("/cards/c1", TrelloBatch.CARD);
+        final TrelloBatch.Request<Card> bad = batch.get("/cards/bad", TrelloBatch.CARD);
+        batch.execute();
+
+        assertThat(one.get().getId()).isEqualTo("c1");
+        try {
+            bad.get();
+            throw new AssertionError("The failed request has to throw");
+        } catch (BadRequestException ex) {
+            verify(trello, times(1)).batch(urls("/cards/bad"));
+        }
+    }
+
+    @Test
+    public void testUnavailableFailsWholeChunk() throws Exception {
+        final ConnectorUnavailableException unavailable = new ConnectorUnavailableException(Connector.TRELLO,
+                HystrixRuntimeException.FailureType.SHORTCIRCUIT, null);
+        when(trello.batch(anyString())).thenThrow(unavailable);
+
+        final List<TrelloBatch.Request<Card>> requests = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            requests.add(batch.get("/cards/c" + i, TrelloBatch.CARD));
+        }
+        batch.execute();
+
+        // Neither split nor retried
+        verify(trello, times(1)).batch(anyString());
+        for (TrelloBatch.Request<Card> request: requests) {
+            try {
+                request.get();
+                throw new AssertionError("The failed request has to throw");
+            } catch (ConnectorUnavailableException ex) {
+                assertThat(ex).isSameAs(unavailable);
+            }
+        }
+    }
+
+    @Test
+    public void testServerErrorIsNotSplit() throws Exception {
+        when(trello.batch(urls("/cards/c1", "/cards/c2"))).thenThrow(new ServiceUnavailableException());
+
+        final TrelloBatch.Request<Card> one = batch.get("/cards/c1", TrelloBatch.CARD);
+        batch.get("/cards/c2", TrelloBatch.CARD);
+        batch.execute();
+
+        // The whole chunk is retried once, never split
+        verify(trello, times(2)).batch(anyString());
+        verify(trello, times(2)).batch(urls("/cards/c1", "/cards/c2"));
+        try {
+            one.get();
+            throw new AssertionError("The failed request has to throw");
+        } catch (ServiceUnavailableException ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.marsik.bugautomation.trello;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.core.Response;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.marsik.bugautomation.stats.SingleStat;
+
+public class TrelloRateLimiterTest {
+    private TrelloRateLimiter limiter;
+
+    @Before
+    public void setUp() {
+        limiter = new TrelloRateLimiter();
+        limiter.configure(1, 2);
+    }
+
+    private static ClientErrorException tooManyRequests() {
+        return new ClientErrorException(Response.status(429).header("Retry-After", "0").build());
+    }
+
+    @Test
+    public void testBurstThenReject() throws Exception {
+        assertThat(limiter.acquire(false, 0)).isTrue();
+        assertThat(limiter.acquire(true, 0)).isTrue();
+        assertThat(limiter.acquire(false, 0)).isFalse();
+
+        String metrics = limiter.collect().toPrometheusString();
+        assertThat(metrics).contains(SingleStat.TRELLO_RATELIMIT_REJECTED.getName() + " 1.0");
+        assertThat(metrics).contains(SingleStat.TRELLO_RATELIMIT_QUEUED.getName() + " 0.0");
+
+        // Counters restart after each collection
+        assertThat(limiter.collect().toPrometheusString())
+                .contains(SingleStat.TRELLO_RATELIMIT_REJECTED.getName() + " 0.0");
+    }
+
+    @Test
+    public void testRefill() throws Exception {
+        limiter.configure(50, 1);
+        assertThat(limiter.acquire(false, 0)).isTrue();
+        assertThat(limiter.acquire(false, 1000)).isTrue();
+    }
+
+    @Test
+    public void testPause() throws Exception {
+        limiter.pause(10000);
+        assertThat(limiter.acquire(true, 50)).isFalse();
+    }
+
+    @Test
+    public void testRetryAfterTooManyRequests() throws Exception {
+        limiter.configure(100, 10);
+        TrelloClient client = mock(TrelloClient.class);
+        when(client.getCard("card"))
+                .thenThrow(tooManyRequests())
+                .thenReturn(new Card());
+
+        assertThat(limiter.wrap(client).getCard("card")).isNotNull();
+        verify(client, times(2)).getCard("card");
+        assertThat(limiter.collect().toPrometheusString())
+                .contains(SingleStat.TRELLO_RATELIMIT_THROTTLED.getName() + " 1.0");
+    }
+
+    @Test(expected = ClientErrorException.class)
+    public void testGiveUpAfterRetries() throws Exception {
+        limiter.configure(100, 10);
+        TrelloClient client = mock(TrelloClient.class);
+        when(client.updateCard("card", Collections.emptyMap())).thenThrow(tooManyRequests());
+
+        try {
+            limiter.wrap(client).updateCard("card", Collections.emptyMap());
+        } finally {
+            verify(client, times(TrelloRateLimiter.MAX_RETRIES + 1)).updateCard("card", Collections.emptyMap());
+        }
+    }
+
+    @Test
+    public void testRetryDelay() throws Exception {
+        ClientErrorException ex = new ClientErrorException(Response.status(429).header("Retry-After", "2").build());
+        assertThat(TrelloRateLimiter.retryDelay(ex, 0)).isBetween(2000L, 3000L);
+
+        ex = new ClientErrorException(Response.status(429).build());
+        assertThat(TrelloRateLimiter.retryDelay(ex, 2)).isBetween(4000L, 6000L);
+    }
+}
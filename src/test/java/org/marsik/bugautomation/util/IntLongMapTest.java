@@ -0,0 +1,50 @@
+package org.marsik.bugautomation.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntLongMapTest {
+    @Test
+    public void basic() throws Exception {
+        IntLongMap map = new IntLongMap();
+        map.put(1378310, 1000L);
+        map.put(0, 5L);
+
+        assertThat(map.get(1378310, -1)).isEqualTo(1000L);
+        assertThat(map.get(0, -1)).isEqualTo(5L);
+        assertThat(map.get(42, -1)).isEqualTo(-1L);
+        assertThat(map.size()).isEqualTo(2);
+
+        map.remove(0);
+        assertThat(map.containsKey(0)).isFalse();
+        assertThat(map.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void matchesHashMap() throws Exception {
+        IntLongMap map = new IntLongMap();
+        Map<Integer, Long> reference = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                reference.remove(key);
+            } else {
+                map.put(key, i);
+                reference.put(key, (long) i);
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(reference.size());
+        for (int key = 0; key < 5000; key++) {
+            assertThat(map.get(key, -1)).isEqualTo(reference.getOrDefault(key, -1L));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.marsik.bugautomation.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntObjectMapTest {
+    @Test
+    public void basic() throws Exception {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        map.put(1378310, "bug");
+        map.put(0, "zero");
+
+        assertThat(map.get(1378310)).isEqualTo("bug");
+        assertThat(map.get(0)).isEqualTo("zero");
+        assertThat(map.get(42)).isNull();
+        assertThat(map.size()).isEqualTo(2);
+
+        map.remove(0);
+        assertThat(map.containsKey(0)).isFalse();
+        assertThat(map.size()).isEqualTo(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullValue() throws Exception {
+        new IntObjectMap<String>().put(1, null);
+    }
+
+    @Test
+    public void computeIfAbsent() throws Exception {
+        IntObjectMap<String> map = new IntObjectMap<>();
+
+        assertThat(map.computeIfAbsent(-7, String::valueOf)).isEqualTo("-7");
+        assertThat(map.computeIfAbsent(-7, key -> "other")).isEqualTo("-7");
+        assertThat(map.get(-7)).isEqualTo("-7");
+    }
+
+    @Test
+    public void matchesHashMap() throws Exception {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        Map<Integer, String> reference = new HashMap<>();
+        Random random = new Random(42);
+
+        // Every third operation is a removal, so the backward shift runs
+        // inside long probe sequences too
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(5000) - 2500;
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                reference.remove(key);
+            } else {
+                map.put(key, String.valueOf(i));
+                reference.put(key, String.valueOf(i));
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(reference.size());
+        for (int key = -2500; key < 2500; key++) {
+            assertThat(map.get(key)).isEqualTo(reference.get(key));
+            assertThat(map.containsKey(key)).isEqualTo(reference.containsKey(key));
+        }
+
+        Map<Integer, String> entries = new HashMap<>();
+        map.forEach(entries::put);
+        assertThat(entries).isEqualTo(reference);
+    }
+
+    @Test
+    public void removeInRandomOrder() throws Exception {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        List<Integer> keys = new ArrayList<>();
+        for (int key = 0; key < 1000; key++) {
+            map.put(key, String.valueOf(key));
+            keys.add(key);
+        }
+        Collections.shuffle(keys, new Random(7));
+
+        // The keys not removed yet must stay reachable after every shift
+        for (int i = 0; i < keys.size(); i++) {
+            map.remove(keys.get(i));
+            assertThat(map.containsKey(keys.get(i))).isFalse();
+            for (int key: keys.subList(i + 1, keys.size())) {
+                assertThat(map.get(key)).isEqualTo(String.valueOf(key));
+            }
+        }
+
+        assertThat(map.isEmpty()).isTrue();
+    }
+}